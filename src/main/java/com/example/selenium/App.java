@@ -1,6 +1,8 @@
 package com.example.selenium;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,6 +10,9 @@ import org.apache.logging.log4j.Logger;
 import com.example.selenium.command.CommandParams;
 import com.example.selenium.command.Navigate;
 import com.example.selenium.command.SolveCaptcha;
+import com.example.selenium.metrics.Metrics;
+import com.example.selenium.sqs.JsonlFileJobSource;
+import com.example.selenium.sqs.JsonlFileResultSink;
 import com.example.selenium.sqs.MessageHandler;
 
 
@@ -25,14 +30,26 @@ public class App {
             logger.info("Starting tests...");
 
             checkDriver();
+            Metrics.startReporting(Duration.ofSeconds(Long.getLong(Metrics.REPORT_INTERVAL_PROPERTY, 60L)));
 
             String useSqs = System.getProperty("test-automation.use.sqs");
+            String jobsFile = System.getProperty("test-automation.jobs.file");
             if( useSqs != null && useSqs.equals("true")){
 
                 logger.info("Reading from SQS");
                 MessageHandler sqsHandler = new MessageHandler();
                 sqsHandler.processMessages();
 
+            }else if( jobsFile != null ){
+
+                String resultsFile = System.getProperty("test-automation.results.file", "results.jsonl");
+                logger.info("Reading from "+jobsFile+". Writing results to "+resultsFile);
+                MessageHandler fileHandler = new MessageHandler(
+                    new JsonlFileJobSource(Path.of(jobsFile)),
+                    new JsonlFileResultSink(Path.of(resultsFile)),
+                    Boolean.FALSE);
+                fileHandler.processMessages();
+
             }else{
 
                 runTestAmazonCart();
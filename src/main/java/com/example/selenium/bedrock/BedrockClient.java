@@ -1,19 +1,20 @@
 package com.example.selenium.bedrock;
 
-import java.io.File;
-import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONObject;
 
+import com.example.selenium.bedrock.model.Base64Image;
 import com.example.selenium.bedrock.model.ModelHandler;
 import com.example.selenium.bedrock.model.ModelHandlerFactory;
+import com.example.selenium.bedrock.model.PayloadWriter;
+import com.example.selenium.bedrock.model.Prompt;
+import com.example.selenium.bedrock.model.StreamedResponse;
 
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
-import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamRequest;
@@ -27,91 +28,107 @@ public class BedrockClient implements BedrockService {
     public static final String CLAUDE_SONNET_3_5_V2 = "us.anthropic.claude-3-5-sonnet-20241022-v2:0";
     public static final String CLAUDE_SONNET_3_7 = "us.anthropic.claude-3-7-sonnet-20250219-v1:0";
     public static final String NOVA_PRO = "amazon.nova-pro-v1:0";
-
-    @SuppressWarnings("unused")
-    private static final String CLAUDE_HAIKU = "anthropic.claude-3-haiku-20240307-v1:0";
+    public static final String NOVA_LITE = "amazon.nova-lite-v1:0";
+    public static final String NOVA_MICRO = "amazon.nova-micro-v1:0";
+    public static final String CLAUDE_HAIKU = "anthropic.claude-3-haiku-20240307-v1:0";
+    public static final String CLAUDE_HAIKU_3_5 = "us.anthropic.claude-3-5-haiku-20241022-v1:0";
 
     public static final String DEFAULT_MODEL = CLAUDE_SONNET_3_5_V2;
+
+    public static final String EARLY_COMPLETION_PROPERTY = "test-automation.stream.early.completion";
+    private static final boolean EARLY_COMPLETION = Boolean.parseBoolean(System.getProperty(EARLY_COMPLETION_PROPERTY, "true"));
+    public static final String STRUCTURED_OUTPUT_PROPERTY = "test-automation.structured.output";
+    private static final boolean STRUCTURED_OUTPUT = Boolean.getBoolean(STRUCTURED_OUTPUT_PROPERTY);
     
-    private BedrockRuntimeAsyncClient client;
-    private BedrockClientConfig config;
-    private ModelHandler modelHandler;
+    private final BedrockRuntimeAsyncClient client;
+    private final BedrockClientConfig config;
+    private final ModelHandler modelHandler;
+    private final ResponseCache cache;
+    private final BedrockRateLimiter limiter;
+
+    /**
+     * Client for the default configuration, shared through {@link BedrockClientRegistry#getDefault()}.
+     */
+    public static BedrockClient shared() {
+        return shared(BedrockClientConfig.builder().build());
+    }
 
-    public BedrockClient() {
-        this(BedrockClientConfig.builder().build());
+    public static BedrockClient shared(BedrockClientConfig config) {
+        return BedrockClientRegistry.getDefault().get(config);
     }
 
-    public BedrockClient(BedrockClientConfig config) {
-        initialize(config);
+    /**
+     * Service for the configuration, spread over the regions of {@link RegionPool#REGIONS_PROPERTY} when set.
+     */
+    public static BedrockService service(BedrockClientConfig config) {
+        return BedrockClientRegistry.getDefault().service(config);
     }
 
-    private void initialize(BedrockClientConfig config) {
+    BedrockClient(BedrockClientConfig config, BedrockRuntimeAsyncClient client, ResponseCache cache, BedrockRateLimiter limiter) {
         this.config = config;
-        this.client = BedrockRuntimeAsyncClient.create();
-        logger.info("Using LLM: "+config.getModelId());
-        this.modelHandler = ModelHandlerFactory.createModelHandler(config.getModelId());
-        
-                // Configure the Netty NIO HTTP client with timeout settings
-        SdkAsyncHttpClient httpClient = NettyNioAsyncHttpClient.builder()
-                .readTimeout(Duration.ofSeconds(300))  // Socket read timeout
-                .writeTimeout(Duration.ofSeconds(300))  // Socket write timeout
-                .connectionAcquisitionTimeout(Duration.ofSeconds(10))  // Connection acquisition timeout
-                .connectionTimeout(Duration.ofSeconds(500))  // Connection timeout
-                .connectionMaxIdleTime(Duration.ofSeconds(300))  // Maximum idle time for a connection
-                .tlsNegotiationTimeout(Duration.ofSeconds(350))
-                .build();
+        this.client = client;
+        this.cache = cache;
+        this.limiter = limiter;
+        logger.info("Using LLM: "+config.getModelId()+" in "+config.getRegion());
+        this.modelHandler = ModelHandlerFactory.createModelHandler(config.getModelId(), STRUCTURED_OUTPUT);
+    }
 
-        client = BedrockRuntimeAsyncClient.builder()
-                .httpClient(httpClient)
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .region(Region.US_EAST_1)
-                .build();   
+    public BedrockClientConfig getConfig() {
+        return config;
     }
 
     @Override
     public String invoke(String prompt) {
-        logger.info("Invoking LLM "+config.getModelId());
-        JSONObject response = invokeModelWithResponseStream(prompt);
-        return extractTextFromResponse(response);
-    }
-
-    public String invokeWithImage(String prompt, File imageLocation) {
-        logger.info("Invoking LLM "+config.getModelId()+" with image "+imageLocation.toPath().toString());
-        JSONObject response = invokeModelWithResponseStream(prompt, imageLocation);
-        return extractTextFromResponse(response);
+        return invoke(Prompt.of(prompt));
     }
 
-    private JSONObject invokeModelWithResponseStream(String prompt) {
-
+    @Override
+    public String invoke(Prompt prompt) {
+        logger.info("Invoking LLM "+config.getModelId());
         JSONObject payload = modelHandler.createPayload(prompt, config.getMaxTokens(), config.getTemperature());
+        return cache.get(config.getModelId(), payload, () -> extractTextFromResponse(invokeModelWithResponseStream(payload, EARLY_COMPLETION)));
+    }
 
-        var request = InvokeModelWithResponseStreamRequest.builder()
-                .contentType("application/json")
-                .body(SdkBytes.fromUtf8String(payload.toString()))
-                .modelId(config.getModelId())
-                .build();
-
-        JSONObject structuredResponse = new JSONObject();
-        var handler = modelHandler.createResponseStreamHandler(structuredResponse);
-        client.invokeModelWithResponseStream(request, handler).join();
-
-        return structuredResponse;
+    @Override
+    public String invokeWithImage(String prompt, Base64Image image) {
+        logger.info("Invoking LLM "+config.getModelId()+" with "+image.getFormat()+" image");
+        JSONObject payload = modelHandler.createPayload(Prompt.of(prompt), image, config.getMaxTokens(), config.getTemperature());
+        return cache.get(config.getModelId(), payload, () -> extractTextFromResponse(invokeModelWithResponseStream(payload, false)));
     }
 
-    private JSONObject invokeModelWithResponseStream(String prompt, File imageLocation) {
+    /**
+     * @param earlyCompletion return as soon as the first JSON object of the answer is complete and cancel the rest
+     * of the generation
+     */
+    private JSONObject invokeModelWithResponseStream(JSONObject payload, boolean earlyCompletion) {
 
-        JSONObject requestBody = modelHandler.createPayload(prompt, imageLocation, config.getMaxTokens(), config.getTemperature());
-        
+        SdkBytes body = PayloadWriter.write(payload);
         var request = InvokeModelWithResponseStreamRequest.builder()
                 .contentType("application/json")
-                .body(SdkBytes.fromUtf8String(requestBody.toString()))
+                .body(body)
                 .modelId(config.getModelId())
                 .build();
+        //one token every 4 bytes, as the page pruner estimates them
+        return limiter.call(body.asByteArrayUnsafe().length / 4, () -> stream(request, earlyCompletion));
+    }
 
-        JSONObject structuredResponse = new JSONObject();
-        var handler = modelHandler.createResponseStreamHandler(structuredResponse);
-        client.invokeModelWithResponseStream(request, handler).join();
+    private JSONObject stream(InvokeModelWithResponseStreamRequest request, boolean earlyCompletion) {
 
+        StreamedResponse response = new StreamedResponse(earlyCompletion);
+        CompletableFuture<Void> call = client.invokeModelWithResponseStream(request, modelHandler.createResponseStreamHandler(response));
+        call.whenComplete((v, e) -> {
+            if( e != null ){
+                response.fail(e);
+            }else{
+                response.complete();
+            }
+        });
+        JSONObject structuredResponse = response.result().join();
+        if( response.completedEarly() ){
+            //aborts the request, the model stops generating the text after the object
+            call.cancel(true);
+            logger.info("Answer complete, cancelled the rest of the stream");
+        }
         return structuredResponse;
     }
 
@@ -122,19 +139,30 @@ public class BedrockClient implements BedrockService {
         return response.toString();
     }
 
+    /**
+     * Value type: configurations with the same settings share a client.
+     */
     public static class BedrockClientConfig {
+        public static final String REGION_PROPERTY = "test-automation.bedrock.region";
+
         private final int maxTokens;
         private final String modelId;
         private final Double temperature;
+        private final Region region;
 
         private BedrockClientConfig() {
-            this(300000, BedrockClient.DEFAULT_MODEL, 0.15d);
+            this(300000, BedrockClient.DEFAULT_MODEL, 0.15d, defaultRegion());
         }
 
-        private BedrockClientConfig(int maxTokens, String modelId, Double temperature) {
+        private BedrockClientConfig(int maxTokens, String modelId, Double temperature, Region region) {
             this.maxTokens = maxTokens;
             this.modelId = modelId;
             this.temperature = temperature;
+            this.region = region;
+        }
+
+        private static Region defaultRegion() {
+            return Region.of(System.getProperty(REGION_PROPERTY, Region.US_EAST_1.id()));
         }
 
         public int getMaxTokens() {
@@ -149,10 +177,34 @@ public class BedrockClient implements BedrockService {
             return temperature;
         }
 
-        private static class BedrockClientConfigBuilder {
+        public Region getRegion() {
+            return region;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if( this == o ){
+                return true;
+            }
+            if( !(o instanceof BedrockClientConfig other) ){
+                return false;
+            }
+            return maxTokens == other.maxTokens
+                && modelId.equals(other.modelId)
+                && Objects.equals(temperature, other.temperature)
+                && region.equals(other.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(maxTokens, modelId, temperature, region);
+        }
+
+        public static class BedrockClientConfigBuilder {
             private int maxTokens = 300000;
             private String modelId = BedrockClient.DEFAULT_MODEL;
             private Double temperature = 0.15d;
+            private Region region = defaultRegion();
 
             public BedrockClientConfigBuilder() {}
 
@@ -171,8 +223,13 @@ public class BedrockClient implements BedrockService {
                 return this;
             }
 
+            public BedrockClientConfigBuilder region(Region region){
+                this.region = region;
+                return this;
+            }
+
             public BedrockClientConfig build() {
-                return new BedrockClientConfig(maxTokens, modelId, temperature);
+                return new BedrockClientConfig(maxTokens, modelId, temperature, region);
             }
         }
 
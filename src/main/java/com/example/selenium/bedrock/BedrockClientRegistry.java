@@ -0,0 +1,207 @@
+package com.example.selenium.bedrock;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.selenium.bedrock.BedrockClient.BedrockClientConfig;
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.Http2Configuration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClientBuilder;
+
+/**
+ * Bedrock clients shared by every command of the process. There is one {@link BedrockClient} per configuration
+ * (model, region and sampling settings) and one SDK client per region, and all of them use a single Netty HTTP
+ * client: one event loop and one connection pool, so chained commands and concurrent workers reuse warm TLS
+ * connections instead of opening their own. Responses go through the {@link ResponseCache} of the registry and calls
+ * through the {@link BedrockRateLimiter} of their region, so workers back off together when Bedrock throttles them
+ * and a throttled region does not slow the others down. With several regions configured, every model is served by a
+ * {@link RegionPool} over them: the SDK and the limiters leave throttled calls to the pool after one retry, so it
+ * fails them over while the region recovers.
+ *
+ * Metrics: bedrock.clients and bedrock.regions gauges.
+ */
+public class BedrockClientRegistry implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(BedrockClientRegistry.class);
+
+    public static final String MAX_CONCURRENCY_PROPERTY = "test-automation.bedrock.max.concurrency";
+    public static final String HTTP2_PROPERTY = "test-automation.bedrock.http2";
+
+    private static BedrockClientRegistry defaultRegistry = null;
+
+    private final SdkAsyncHttpClient httpClient;
+    private final ResponseCache cache;
+    private final int maxConcurrency;
+    private final Map<Region, BedrockRateLimiter> limiters = new ConcurrentHashMap<>();
+    private final Map<Region, BedrockRuntimeAsyncClient> runtimeClients = new ConcurrentHashMap<>();
+    private final Map<BedrockClientConfig, BedrockClient> clients = new ConcurrentHashMap<>();
+    private final Map<BedrockClientConfig, RegionPool> pools = new ConcurrentHashMap<>();
+    private final List<String> regions;
+    private volatile boolean closed = false;
+
+    public BedrockClientRegistry(int maxConcurrency, boolean http2) {
+        this(maxConcurrency, http2, ResponseCache.off());
+    }
+
+    public BedrockClientRegistry(int maxConcurrency, boolean http2, ResponseCache cache) {
+        this(maxConcurrency, http2, cache, List.of());
+    }
+
+    /**
+     * @param regions regions of the pools, each one a region id optionally followed by the geography of its
+     * inference profiles: us-east-1, eu-central-1@eu
+     */
+    public BedrockClientRegistry(int maxConcurrency, boolean http2, ResponseCache cache, List<String> regions) {
+
+        this.cache = cache;
+        this.regions = regions;
+        this.maxConcurrency = maxConcurrency;
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(maxConcurrency)
+                .readTimeout(Duration.ofSeconds(300))  // Socket read timeout
+                .writeTimeout(Duration.ofSeconds(300))  // Socket write timeout
+                .connectionAcquisitionTimeout(Duration.ofSeconds(10))  // Connection acquisition timeout
+                .connectionTimeout(Duration.ofSeconds(500))  // Connection timeout
+                .connectionMaxIdleTime(Duration.ofSeconds(300))  // Maximum idle time for a connection
+                .tlsNegotiationTimeout(Duration.ofSeconds(350));
+        if( http2 ){
+            //every request is a stream of a few connections instead of a connection of its own
+            builder.protocol(Protocol.HTTP2)
+                .http2Configuration(Http2Configuration.builder()
+                    .maxStreams(100L)
+                    .healthCheckPingPeriod(Duration.ofSeconds(30))
+                    .build());
+        }
+        this.httpClient = builder.build();
+        Metrics.gauge("bedrock.clients", clients::size);
+        Metrics.gauge("bedrock.regions", runtimeClients::size);
+        logger.info("Bedrock HTTP client: max concurrency "+maxConcurrency+(http2 ? ", HTTP/2" : ", HTTP/1.1"));
+    }
+
+    /**
+     * Registry shared by every command of this process. Concurrency defaults to two streams per worker.
+     */
+    public static synchronized BedrockClientRegistry getDefault() {
+
+        if( defaultRegistry == null ){
+            int workers = Integer.getInteger("test-automation.workers", 1);
+            defaultRegistry = new BedrockClientRegistry(
+                Integer.getInteger(MAX_CONCURRENCY_PROPERTY, Math.max(10, 2 * workers)),
+                Boolean.getBoolean(HTTP2_PROPERTY),
+                ResponseCache.fromSystemProperties(),
+                Arrays.stream(System.getProperty(RegionPool.REGIONS_PROPERTY, "").split(","))
+                    .map(String::trim)
+                    .filter(r -> !r.isEmpty())
+                    .toList());
+            Runtime.getRuntime().addShutdownHook(new Thread(defaultRegistry::close, "bedrock-registry-shutdown"));
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Client for the model and region of the configuration, created on first use.
+     */
+    public BedrockClient get(BedrockClientConfig config) {
+
+        checkOpen();
+        return clients.computeIfAbsent(config, c -> new BedrockClient(c, runtimeClient(c.getRegion()), cache, limiter(c.getRegion())));
+    }
+
+    /**
+     * Service for the model of the configuration: a region pool when regions are configured, its client otherwise.
+     */
+    public BedrockService service(BedrockClientConfig config) {
+
+        if( regions.isEmpty() ){
+            return get(config);
+        }
+        checkOpen();
+        return pools.computeIfAbsent(config, c -> {
+            Map<String, BedrockClient> members = new LinkedHashMap<>();
+            for( String entry : regions ){
+                int at = entry.indexOf('@');
+                String modelId = at == -1 ? c.getModelId() : entry.substring(at + 1)+"."+c.getModelId().replaceFirst("^(us|eu|apac|us-gov)\\.", "");
+                members.put(entry, get(BedrockClientConfig.builder()
+                    .maxTokens(c.getMaxTokens())
+                    .temperature(c.getTemperature())
+                    .modelId(modelId)
+                    .region(Region.of(at == -1 ? entry : entry.substring(0, at)))
+                    .build()));
+            }
+            return new RegionPool(c.getModelId(), members,
+                Integer.getInteger(RegionPool.FAILURES_PROPERTY, 3),
+                Duration.ofSeconds(Long.getLong(RegionPool.EJECTION_PROPERTY, 30L)));
+        });
+    }
+
+    BedrockRuntimeAsyncClient runtimeClient(Region region) {
+
+        checkOpen();
+        return runtimeClients.computeIfAbsent(region, r -> {
+            logger.info("Creating Bedrock runtime client for "+r);
+            BedrockRuntimeAsyncClientBuilder builder = BedrockRuntimeAsyncClient.builder()
+                .httpClient(httpClient)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .region(r);
+            if( !regions.isEmpty() ){
+                //the limiter retries throttling once and the pool fails over everything else
+                builder.overrideConfiguration(o -> o.retryPolicy(RetryPolicy.none()));
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * Limiter of the region: every region has its own quotas, throttling of one leaves the window of the others.
+     */
+    BedrockRateLimiter limiter(Region region) {
+        return limiters.computeIfAbsent(region, r -> BedrockRateLimiter.fromSystemProperties(maxConcurrency, r.id(), !regions.isEmpty()));
+    }
+
+    private void checkOpen() {
+        if( closed ){
+            throw new IllegalStateException("Bedrock client registry is closed");
+        }
+    }
+
+    /**
+     * Closes the SDK clients and the shared HTTP client. Streams still running fail.
+     */
+    @Override
+    public synchronized void close() {
+
+        if( closed ){
+            return;
+        }
+        closed = true;
+        clients.clear();
+        pools.clear();
+        limiters.clear();
+        for( BedrockRuntimeAsyncClient client : runtimeClients.values() ){
+            try{
+                client.close();
+            }catch(Exception e){
+                logger.error("Error closing Bedrock client: "+e.getMessage(), e);
+            }
+        }
+        runtimeClients.clear();
+        //clients built with an explicit HTTP client leave it open
+        httpClient.close();
+        logger.info("Closed Bedrock clients");
+    }
+}
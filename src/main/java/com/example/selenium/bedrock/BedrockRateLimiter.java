@@ -0,0 +1,255 @@
+package com.example.selenium.bedrock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Limits the Bedrock calls of every worker of the process to one region so they back off together instead of running
+ * into throttling storms. Two limits apply before a call starts:
+ * - a concurrency window that grows by one call per window of successful calls and halves on throttling (AIMD)
+ * - a token bucket on the estimated input tokens, refilled at the tokens per minute quota of the account
+ *
+ * Throttled calls are retried with full jitter: a random wait up to an exponentially growing backoff.
+ *
+ * Metrics: bedrock.limiter.queue, bedrock.limiter.in.flight, bedrock.limiter.concurrency and
+ * bedrock.limiter.throttle.rate gauges, suffixed with the region of the limiter, bedrock.limiter.calls, bedrock.limiter.throttled and bedrock.limiter.retries
+ * counters, and a bedrock.limiter.wait timer.
+ */
+public class BedrockRateLimiter {
+
+    private static final Logger logger = LogManager.getLogger(BedrockRateLimiter.class);
+
+    public static final String TOKENS_PER_MINUTE_PROPERTY = "test-automation.bedrock.tokens.per.minute";
+    public static final String RETRIES_PROPERTY = "test-automation.bedrock.retries";
+    public static final String BACKOFF_PROPERTY = "test-automation.bedrock.backoff.ms";
+
+    //a burst of throttled calls started in the same window halves it once
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_MILLIS = 20000;
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final int maxConcurrency;
+    private final long tokensPerMinute;
+    private final int retries;
+    private final long backoffMillis;
+
+    private double window;
+    private int inFlight = 0;
+    private int waiting = 0;
+    private double tokens;
+    private long refilled = System.nanoTime();
+    private long decreased = refilled - DECREASE_INTERVAL_NANOS;
+    //exponentially weighted share of throttled calls
+    private double throttleRate = 0;
+
+    /**
+     * @param tokensPerMinute input token quota, 0 for none
+     */
+    public BedrockRateLimiter(int maxConcurrency, long tokensPerMinute, int retries, long backoffMillis) {
+        this(maxConcurrency, tokensPerMinute, retries, backoffMillis, null);
+    }
+
+    /**
+     * @param region suffix of the gauges, null for none
+     */
+    public BedrockRateLimiter(int maxConcurrency, long tokensPerMinute, int retries, long backoffMillis, String region) {
+
+        this.maxConcurrency = maxConcurrency;
+        this.tokensPerMinute = tokensPerMinute;
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+        this.window = maxConcurrency;
+        this.tokens = tokensPerMinute;
+        String suffix = region == null ? "" : "."+region;
+        Metrics.gauge("bedrock.limiter.queue"+suffix, this::queued);
+        Metrics.gauge("bedrock.limiter.in.flight"+suffix, this::inFlight);
+        Metrics.gauge("bedrock.limiter.concurrency"+suffix, this::concurrency);
+        Metrics.gauge("bedrock.limiter.throttle.rate"+suffix, this::throttleRate);
+    }
+
+    public static BedrockRateLimiter fromSystemProperties(int maxConcurrency) {
+        return fromSystemProperties(maxConcurrency, null, false);
+    }
+
+    /**
+     * @param pooled the region is a member of a {@link RegionPool}: a call still throttled after one retry goes back
+     * to the pool, which fails it over to another region instead of waiting for this one
+     */
+    public static BedrockRateLimiter fromSystemProperties(int maxConcurrency, String region, boolean pooled) {
+
+        int retries = Integer.getInteger(RETRIES_PROPERTY, 5);
+        return new BedrockRateLimiter(maxConcurrency,
+            Long.getLong(TOKENS_PER_MINUTE_PROPERTY, 0L),
+            pooled ? Math.min(retries, 1) : retries,
+            Long.getLong(BACKOFF_PROPERTY, 500L),
+            region);
+    }
+
+    /**
+     * Runs the invocation once the window and the token bucket allow it, retrying it while it is throttled.
+     * @param estimatedTokens input tokens of the request
+     */
+    public <T> T call(int estimatedTokens, Supplier<T> invocation) {
+
+        for( int attempt=0; ; attempt++ ){
+            acquire(estimatedTokens);
+            Metrics.increment("bedrock.limiter.calls");
+            boolean succeeded = false;
+            boolean throttled = false;
+            try{
+                T result = invocation.get();
+                succeeded = true;
+                return result;
+            }catch(RuntimeException e){
+                throttled = isThrottling(e);
+                if( !throttled || attempt >= retries ){
+                    throw e;
+                }
+            }finally{
+                release(succeeded, throttled);
+            }
+            long wait = ThreadLocalRandom.current().nextLong(Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 20)) + 1);
+            logger.info("Bedrock call throttled, retry "+(attempt+1)+" of "+retries+" in "+wait+" ms");
+            Metrics.increment("bedrock.limiter.retries");
+            try{
+                Thread.sleep(wait);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to retry a throttled call", e);
+            }
+        }
+    }
+
+    private void acquire(int estimatedTokens) {
+
+        long start = System.nanoTime();
+        //a request larger than the bucket waits for a full one instead of forever
+        long cost = tokensPerMinute > 0 ? Math.min(estimatedTokens, tokensPerMinute) : 0;
+        lock.lock();
+        waiting++;
+        try{
+            while( true ){
+                refill();
+                boolean slot = inFlight < (int)window;
+                if( slot && tokens >= cost ){
+                    inFlight++;
+                    tokens -= cost;
+                    return;
+                }
+                long wait = slot ? nanosUntil(cost) : MAX_WAIT_NANOS;
+                released.awaitNanos(Math.min(wait, MAX_WAIT_NANOS));
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a Bedrock call slot", e);
+        }finally{
+            waiting--;
+            lock.unlock();
+            Metrics.record("bedrock.limiter.wait", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Calls that failed for other reasons leave the window as it is.
+     */
+    private void release(boolean succeeded, boolean throttled) {
+
+        lock.lock();
+        try{
+            inFlight--;
+            throttleRate = 0.9 * throttleRate + (throttled ? 0.1 : 0);
+            if( throttled ){
+                Metrics.increment("bedrock.limiter.throttled");
+                long now = System.nanoTime();
+                if( now - decreased > DECREASE_INTERVAL_NANOS ){
+                    decreased = now;
+                    window = Math.max(1, window / 2);
+                    logger.info(String.format("Bedrock throttling, concurrency window down to %.1f", window));
+                }
+            }else if( succeeded ){
+                window = Math.min(maxConcurrency, window + 1 / window);
+            }
+            released.signalAll();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+
+        long now = System.nanoTime();
+        if( tokensPerMinute > 0 ){
+            tokens = Math.min(tokensPerMinute, tokens + (now - refilled) * tokensPerMinute / (double)TimeUnit.MINUTES.toNanos(1));
+        }
+        refilled = now;
+    }
+
+    private long nanosUntil(long cost) {
+        return (long)Math.ceil((cost - tokens) * TimeUnit.MINUTES.toNanos(1) / tokensPerMinute);
+    }
+
+    /**
+     * Throttling errors of Bedrock, possibly wrapped by the future of the call.
+     */
+    static boolean isThrottling(Throwable t) {
+
+        for( Throwable cause = t; cause != null; cause = cause.getCause() ){
+            if( cause instanceof AwsServiceException e && e.isThrottlingException() ){
+                return true;
+            }
+            if( cause instanceof SdkServiceException e && e.statusCode() == 429 ){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int queued() {
+        lock.lock();
+        try{
+            return waiting;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try{
+            return inFlight;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public double concurrency() {
+        lock.lock();
+        try{
+            return window;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    public double throttleRate() {
+        lock.lock();
+        try{
+            return throttleRate;
+        }finally{
+            lock.unlock();
+        }
+    }
+}
@@ -1,7 +1,20 @@
 package com.example.selenium.bedrock;
 
+import java.io.File;
+
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.bedrock.model.Prompt;
+
 public interface BedrockService {
 
     public abstract String invoke(String prompt);
+
+    public abstract String invoke(Prompt prompt);
+
+    public abstract String invokeWithImage(String prompt, Base64Image image);
+
+    public default String invokeWithImage(String prompt, File imageLocation) {
+        return invokeWithImage(prompt, new Base64Image(imageLocation));
+    }
     
 }
@@ -0,0 +1,133 @@
+package com.example.selenium.bedrock;
+
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.selenium.bedrock.BedrockClient.BedrockClientConfig;
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.bedrock.model.Prompt;
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Sends each step to a fast, cheap model first and escalates to the strong model when the cheap answer is rejected:
+ * it does not parse, uses ids that are not on the page, or the caller knows the previous step repeated itself
+ * without progress. The caller decides what a rejected answer is.
+ *
+ * Metrics: router.cheap, router.escalated, router.escalated.&lt;reason&gt; and router.strong counters, and a
+ * router.latency.&lt;model id&gt; timer per model.
+ */
+public class ModelRouter implements BedrockService {
+
+    private static final Logger logger = LogManager.getLogger(ModelRouter.class);
+
+    public static final String ENABLED_PROPERTY = "test-automation.router";
+    public static final String CHEAP_MODEL_PROPERTY = "test-automation.router.cheap.model";
+    public static final String STRONG_MODEL_PROPERTY = "test-automation.router.strong.model";
+    public static final String CONFIRM_VERDICT_PROPERTY = "test-automation.router.confirm.verdict";
+
+    private final BedrockService cheap;
+    private final String cheapModel;
+    private final BedrockService strong;
+    private final String strongModel;
+    private final boolean confirmVerdicts;
+
+    public ModelRouter(BedrockService cheap, String cheapModel, BedrockService strong, String strongModel, boolean confirmVerdicts) {
+        this.cheap = cheap;
+        this.cheapModel = cheapModel;
+        this.strong = strong;
+        this.strongModel = strongModel;
+        this.confirmVerdicts = confirmVerdicts;
+    }
+
+    /**
+     * The router, or null when routing is disabled (default).
+     */
+    public static ModelRouter fromSystemProperties() {
+
+        if( !Boolean.getBoolean(ENABLED_PROPERTY) ){
+            return null;
+        }
+        String cheapModel = System.getProperty(CHEAP_MODEL_PROPERTY, BedrockClient.CLAUDE_HAIKU_3_5);
+        String strongModel = System.getProperty(STRONG_MODEL_PROPERTY, BedrockClient.DEFAULT_MODEL);
+        return new ModelRouter(
+            BedrockClient.service(BedrockClientConfig.builder().modelId(cheapModel).build()), cheapModel,
+            BedrockClient.service(BedrockClientConfig.builder().modelId(strongModel).build()), strongModel,
+            Boolean.parseBoolean(System.getProperty(CONFIRM_VERDICT_PROPERTY, "true")));
+    }
+
+    /**
+     * Whether the strong model should confirm that a test finished, the cheap one tends to declare success early.
+     */
+    public boolean confirmsVerdicts() {
+        return confirmVerdicts;
+    }
+
+    @Override
+    public String invoke(String prompt) {
+        return invoke(Prompt.of(prompt));
+    }
+
+    @Override
+    public String invoke(Prompt prompt) {
+        return invoke(prompt, response -> null, false);
+    }
+
+    /**
+     * Images always go to the strong model.
+     */
+    @Override
+    public String invokeWithImage(String prompt, Base64Image image) {
+        Metrics.increment("router.strong");
+        long start = System.nanoTime();
+        try{
+            return strong.invokeWithImage(prompt, image);
+        }finally{
+            Metrics.record("router.latency."+strongModel, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param rejection reason to reject an answer of the cheap model, or null to accept it
+     * @param escalate skip the cheap model, e.g. when the previous step repeated without progress
+     */
+    public String invoke(Prompt prompt, Function<String, String> rejection, boolean escalate) {
+
+        if( escalate ){
+            Metrics.increment("router.escalated.no-progress");
+            return invokeStrong(prompt);
+        }
+        String reason;
+        try{
+            String response = timed(cheap, cheapModel, prompt);
+            reason = rejection.apply(response);
+            if( reason == null ){
+                Metrics.increment("router.cheap");
+                return response;
+            }
+        }catch(Exception e){
+            logger.info("Cheap model failed, escalating. Msg: "+e.getMessage());
+            reason = "error";
+        }
+        logger.info("Escalating to "+strongModel+": "+reason);
+        Metrics.increment("router.escalated");
+        Metrics.increment("router.escalated."+reason);
+        return invokeStrong(prompt);
+    }
+
+    private String invokeStrong(Prompt prompt) {
+        Metrics.increment("router.strong");
+        return timed(strong, strongModel, prompt);
+    }
+
+    private static String timed(BedrockService service, String modelId, Prompt prompt) {
+
+        long start = System.nanoTime();
+        try{
+            return service.invoke(prompt);
+        }finally{
+            Metrics.record("router.latency."+modelId, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.selenium.bedrock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.bedrock.model.Prompt;
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * One model served from several regions or inference profiles, so the fleet is not capped by the quota of a single
+ * region. Each call goes to a region picked at random, weighted towards the ones with the lowest latency and error
+ * rate, and fails over to the next one when it fails. Regions that are never tried get a call first.
+ *
+ * Every region has a circuit breaker: after consecutive failures it is left out of the pool for a while, then one
+ * call checks whether it recovered. Health is kept per model, every model has its own pool.
+ *
+ * Metrics: region.pool.failover, region.pool.ejected and region.pool.recovered counters, a region.latency.&lt;region&gt;
+ * timer and a region.pool.available.&lt;model id&gt; gauge.
+ */
+public class RegionPool implements BedrockService {
+
+    private static final Logger logger = LogManager.getLogger(RegionPool.class);
+
+    public static final String REGIONS_PROPERTY = "test-automation.bedrock.regions";
+    public static final String FAILURES_PROPERTY = "test-automation.bedrock.region.failures";
+    public static final String EJECTION_PROPERTY = "test-automation.bedrock.region.ejection.s";
+
+    private static final double ALPHA = 0.2;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static class Member {
+
+        private final String name;
+        private final BedrockService service;
+        private State state = State.CLOSED;
+        private int failures = 0;
+        private long openUntil = 0;
+        private double latencyMillis = 0;
+        private double errorRate = 0;
+        private boolean tried = false;
+
+        Member(String name, BedrockService service) {
+            this.name = name;
+            this.service = service;
+        }
+
+        double weight() {
+            //a region that never answered gets the next call
+            return tried ? 1 / ((latencyMillis + 1) * (1 + 10 * errorRate)) : Double.MAX_VALUE;
+        }
+    }
+
+    private final String modelId;
+    private final List<Member> members = new ArrayList<>();
+    private final int failureThreshold;
+    private final long ejectionNanos;
+
+    /**
+     * @param regions services by region or inference profile name, in order of preference
+     * @param failureThreshold consecutive failures that eject a region
+     * @param ejection time an ejected region is left out before it is tried again
+     */
+    public RegionPool(String modelId, Map<String, ? extends BedrockService> regions, int failureThreshold, Duration ejection) {
+
+        this.modelId = modelId;
+        regions.forEach((name, service) -> members.add(new Member(name, service)));
+        this.failureThreshold = failureThreshold;
+        this.ejectionNanos = ejection.toNanos();
+        Metrics.gauge("region.pool.available."+modelId, this::available);
+        logger.info("Region pool for "+modelId+": "+regions.keySet());
+    }
+
+    @Override
+    public String invoke(String prompt) {
+        return invoke(Prompt.of(prompt));
+    }
+
+    @Override
+    public String invoke(Prompt prompt) {
+        return call(s -> s.invoke(prompt));
+    }
+
+    @Override
+    public String invokeWithImage(String prompt, Base64Image image) {
+        return call(s -> s.invokeWithImage(prompt, image));
+    }
+
+    /**
+     * Tries the regions until one answers. Only failures of a region are tried elsewhere: requests rejected as
+     * invalid and errors raised in this process are rethrown as they are, every region would fail them.
+     */
+    private String call(Function<BedrockService, String> invocation) {
+
+        List<Member> tried = new ArrayList<>();
+        RuntimeException last = null;
+        Member member;
+        while( (member = pick(tried)) != null ){
+            tried.add(member);
+            if( last != null ){
+                Metrics.increment("region.pool.failover");
+                logger.info("Failing over to "+member.name+" for "+modelId);
+            }
+            long start = System.nanoTime();
+            try{
+                String response = invocation.apply(member.service);
+                succeeded(member, System.nanoTime() - start);
+                return response;
+            }catch(RuntimeException e){
+                if( !isRegionFailure(e) ){
+                    release(member);
+                    throw e;
+                }
+                logger.info("Region "+member.name+" failed for "+modelId+". Msg: "+e.getMessage());
+                failed(member);
+                last = e;
+            }
+        }
+        throw last != null ? last : new IllegalStateException("No region available for "+modelId);
+    }
+
+    /**
+     * Random region, weighted by health, among the ones not tried yet. When every region is ejected, the one that
+     * comes back first is tried instead of failing the call.
+     */
+    private synchronized Member pick(List<Member> tried) {
+
+        long now = System.nanoTime();
+        List<Member> candidates = new ArrayList<>();
+        Member soonest = null;
+        for( Member m : members ){
+            if( tried.contains(m) ){
+                continue;
+            }
+            if( m.state == State.OPEN && now - m.openUntil >= 0 ){
+                m.state = State.HALF_OPEN;
+                //one call checks the region, the others keep going elsewhere
+                candidates.clear();
+                candidates.add(m);
+                break;
+            }
+            if( m.state == State.CLOSED ){
+                candidates.add(m);
+            }else if( m.state == State.OPEN && (soonest == null || m.openUntil - soonest.openUntil < 0) ){
+                soonest = m;
+            }
+        }
+        if( candidates.isEmpty() ){
+            return soonest;
+        }
+        double total = 0;
+        for( Member m : candidates ){
+            if( !m.tried ){
+                return m;
+            }
+            total += m.weight();
+        }
+        double target = ThreadLocalRandom.current().nextDouble(total);
+        for( Member m : candidates ){
+            target -= m.weight();
+            if( target < 0 ){
+                return m;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private synchronized void succeeded(Member m, long nanos) {
+
+        Metrics.record("region.latency."+m.name, nanos);
+        double millis = nanos / 1_000_000d;
+        m.latencyMillis = m.tried ? (1 - ALPHA) * m.latencyMillis + ALPHA * millis : millis;
+        m.errorRate = (1 - ALPHA) * m.errorRate;
+        m.tried = true;
+        m.failures = 0;
+        if( m.state != State.CLOSED ){
+            Metrics.increment("region.pool.recovered");
+            logger.info("Region "+m.name+" recovered for "+modelId);
+        }
+        m.state = State.CLOSED;
+    }
+
+    private synchronized void failed(Member m) {
+
+        m.errorRate = (1 - ALPHA) * m.errorRate + ALPHA;
+        m.tried = true;
+        m.failures++;
+        if( m.state == State.HALF_OPEN || m.failures >= failureThreshold ){
+            if( m.state != State.OPEN ){
+                Metrics.increment("region.pool.ejected");
+                logger.info("Ejecting region "+m.name+" for "+modelId+" after "+m.failures+" failures");
+            }
+            m.state = State.OPEN;
+            m.openUntil = System.nanoTime() + ejectionNanos;
+        }
+    }
+
+    /**
+     * A half open region whose check was rejected as invalid is checked again by the next call.
+     */
+    private synchronized void release(Member m) {
+        if( m.state == State.HALF_OPEN ){
+            m.state = State.OPEN;
+        }
+    }
+
+    /**
+     * Errors of the region: server errors, throttling and failures to reach it. Invalid requests and errors raised in
+     * this process (a response missing from the replay cache for instance) would fail the same way in every region.
+     */
+    private static boolean isRegionFailure(Throwable t) {
+
+        for( Throwable cause = t; cause != null; cause = cause.getCause() ){
+            if( cause instanceof SdkServiceException e ){
+                return e.statusCode() >= 500 || BedrockRateLimiter.isThrottling(e);
+            }
+            if( cause instanceof SdkException ){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int available() {
+
+        long now = System.nanoTime();
+        return (int)members.stream().filter(m -> m.state != State.OPEN || now - m.openUntil >= 0).count();
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.selenium.bedrock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Caches model responses so reruns of a suite on pages that did not change do not pay for the same calls. Entries
+ * are keyed by the SHA-256 of the model id and the normalized payload: keys sorted, images replaced by their digest.
+ *
+ * Two tiers: an LRU map of the most recent responses and a directory with one file per response, read through a
+ * memory mapping. The directory is trimmed to its maximum size by removing the least recently used files.
+ *
+ * Modes:
+ * - OFF: every call goes to the model
+ * - RECORD: every call goes to the model and its response is stored
+ * - REPLAY: responses only come from the cache, a miss fails the call. For offline, deterministic runs
+ * - READ_THROUGH: responses come from the cache, misses go to the model and are stored
+ *
+ * Metrics: response.cache.hit.memory, response.cache.hit.disk, response.cache.miss, response.cache.saved.bytes (normalized
+ * request and response) and response.cache.evicted counters.
+ */
+public class ResponseCache {
+
+    private static final Logger logger = LogManager.getLogger(ResponseCache.class);
+
+    public static final String MODE_PROPERTY = "test-automation.response.cache";
+    public static final String DIR_PROPERTY = "test-automation.response.cache.dir";
+    public static final String MEMORY_ENTRIES_PROPERTY = "test-automation.response.cache.memory.entries";
+    public static final String DISK_MB_PROPERTY = "test-automation.response.cache.disk.mb";
+    private static final String SUFFIX = ".json";
+
+    public enum Mode { OFF, RECORD, REPLAY, READ_THROUGH }
+
+    private final Mode mode;
+    private final Path dir;
+    private final long maxDiskBytes;
+    private final Map<String, String> memory;
+    private long diskBytes = 0;
+
+    public ResponseCache(Mode mode, Path dir, int memoryEntries, long maxDiskBytes) {
+
+        this.mode = mode;
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        if( mode != Mode.OFF ){
+            try{
+                Files.createDirectories(dir);
+                try( Stream<Path> files = Files.list(dir) ){
+                    diskBytes = files.filter(f -> f.toString().endsWith(SUFFIX)).mapToLong(ResponseCache::size).sum();
+                }
+            }catch(IOException e){
+                throw new UncheckedIOException("Cannot open response cache "+dir, e);
+            }
+            logger.info(String.format("Response cache %s in %s: %d KB on disk", mode, dir, diskBytes / 1024));
+        }
+    }
+
+    public static ResponseCache fromSystemProperties() {
+
+        return new ResponseCache(
+            Mode.valueOf(System.getProperty(MODE_PROPERTY, Mode.OFF.name()).toUpperCase()),
+            Path.of(System.getProperty(DIR_PROPERTY, "response-cache")),
+            Integer.getInteger(MEMORY_ENTRIES_PROPERTY, 256),
+            Long.getLong(DISK_MB_PROPERTY, 512L) * 1024 * 1024);
+    }
+
+    public static ResponseCache off() {
+        return new ResponseCache(Mode.OFF, null, 0, 0);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Response to the payload, from the cache or from invoke depending on the mode.
+     * @throws IllegalStateException in REPLAY mode when the response was not recorded
+     */
+    public String get(String modelId, JSONObject payload, Supplier<String> invoke) {
+
+        if( mode == Mode.OFF ){
+            return invoke.get();
+        }
+        Key key = canonicalKey(modelId, payload);
+        if( mode != Mode.RECORD ){
+            String response = lookup(key.hash());
+            if( response != null ){
+                //the normalized request, writing the payload again would encode its images
+                Metrics.add("response.cache.saved.bytes", key.requestChars() + response.length());
+                return response;
+            }
+            Metrics.increment("response.cache.miss");
+            if( mode == Mode.REPLAY ){
+                throw new IllegalStateException("No recorded response for "+modelId+" request "+key.hash());
+            }
+        }
+        String response = invoke.get();
+        store(key.hash(), response);
+        return response;
+    }
+
+    /**
+     * Hex SHA-256 of the model id and the normalized payload.
+     */
+    public static String key(String modelId, JSONObject payload) {
+        return canonicalKey(modelId, payload).hash();
+    }
+
+    /**
+     * @param requestChars length of the normalized payload
+     */
+    private record Key(String hash, int requestChars) {
+    }
+
+    private static Key canonicalKey(String modelId, JSONObject payload) {
+
+        StringBuilder canonical = new StringBuilder(modelId).append('\n');
+        normalize(payload, false, canonical);
+        return new Key(HexFormat.of().formatHex(sha256(canonical.toString().getBytes(StandardCharsets.UTF_8))), canonical.length());
+    }
+
+    /**
+     * Writes the value with sorted keys. Strings inside an image source (Anthropic "data", Nova "bytes") are
+     * replaced by their digest.
+     */
+    private static void normalize(Object value, boolean inSource, StringBuilder out) {
+
+        if( value instanceof JSONObject object ){
+            out.append('{');
+            for( String key : new TreeSet<>(object.keySet()) ){
+                out.append(JSONObject.quote(key)).append(':');
+                normalize(object.get(key), inSource || "source".equals(key), out);
+                out.append(',');
+            }
+            out.append('}');
+        }else if( value instanceof JSONArray array ){
+            out.append('[');
+            for( Object item : array ){
+                normalize(item, inSource, out);
+                out.append(',');
+            }
+            out.append(']');
+        }else if( value instanceof Base64Image image ){
+            out.append("sha256:").append(HexFormat.of().formatHex(sha256(image)));
+        }else if( value instanceof String text ){
+            if( inSource && text.length() > 64 ){
+                out.append("sha256:").append(HexFormat.of().formatHex(sha256(text.getBytes(StandardCharsets.US_ASCII))));
+            }else{
+                out.append(JSONObject.quote(text));
+            }
+        }else{
+            out.append(JSONObject.valueToString(value));
+        }
+    }
+
+    private synchronized String lookup(String key) {
+
+        String response = memory.get(key);
+        if( response != null ){
+            Metrics.increment("response.cache.hit.memory");
+            return response;
+        }
+        Path file = dir.resolve(key+SUFFIX);
+        if( !Files.exists(file) ){
+            return null;
+        }
+        try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            response = StandardCharsets.UTF_8.decode(mapped).toString();
+            //least recently used files are evicted first
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }catch(IOException e){
+            logger.error("Error reading cached response "+file+". Msg: "+e.getMessage());
+            return null;
+        }
+        Metrics.increment("response.cache.hit.disk");
+        memory.put(key, response);
+        return response;
+    }
+
+    private synchronized void store(String key, String response) {
+
+        memory.put(key, response);
+        Path file = dir.resolve(key+SUFFIX);
+        Path tmp = dir.resolve(key+".tmp");
+        try{
+            long previous = Files.exists(file) ? size(file) : 0;
+            Files.writeString(tmp, response, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            diskBytes += size(file) - previous;
+        }catch(IOException e){
+            logger.error("Error storing response "+file+". Msg: "+e.getMessage());
+            return;
+        }
+        if( diskBytes > maxDiskBytes ){
+            evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used files until the directory is back under 90% of its maximum size.
+     */
+    private void evict() {
+
+        List<Path> files = new ArrayList<>();
+        try( Stream<Path> listed = Files.list(dir) ){
+            listed.filter(f -> f.toString().endsWith(SUFFIX)).forEach(files::add);
+        }catch(IOException e){
+            logger.error("Error listing response cache "+dir+". Msg: "+e.getMessage());
+            return;
+        }
+        Map<Path, Long> modified = new LinkedHashMap<>();
+        files.forEach(f -> modified.put(f, lastModified(f)));
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        long target = maxDiskBytes * 9 / 10;
+        for( Path file : files ){
+            if( diskBytes <= target ){
+                break;
+            }
+            long size = size(file);
+            try{
+                Files.delete(file);
+                diskBytes -= size;
+                memory.remove(file.getFileName().toString().replace(SUFFIX, ""));
+                Metrics.increment("response.cache.evicted");
+            }catch(IOException e){
+                logger.error("Error evicting "+file+". Msg: "+e.getMessage());
+            }
+        }
+    }
+
+    private static long size(Path file) {
+        try{
+            return Files.size(file);
+        }catch(IOException e){
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try{
+            return Files.getLastModifiedTime(file).toMillis();
+        }catch(IOException e){
+            return 0;
+        }
+    }
+
+    /**
+     * Digest of the base64 text of the image, streamed from its file: the same as for the text itself.
+     */
+    private static byte[] sha256(Base64Image image) {
+
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            image.encodeTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            return digest.digest();
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }catch(IOException e){
+            throw new UncheckedIOException("Cannot read image "+image.getFile(), e);
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try{
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
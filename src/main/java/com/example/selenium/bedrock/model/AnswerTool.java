@@ -0,0 +1,69 @@
+package com.example.selenium.bedrock.model;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The tool the model is forced to call with its answer, so the answer is a JSON object that follows a schema
+ * instead of free text around one: the next step with its actions, the planned steps, or the status of a completed
+ * test. The arguments of the call are streamed as the text of the response and parsed once.
+ *
+ * Anthropic and Nova models declare the same schema in the shape of their own tool configuration.
+ */
+public final class AnswerTool {
+
+    public static final String NAME = "answer";
+    public static final String DESCRIPTION = "Answers with the next step of the test case, the steps that follow it, or the status of the completed test case.";
+
+    private AnswerTool() {
+    }
+
+    /**
+     * JSON schema of the arguments: the answer shapes of the instructions.
+     * @param planning whether the answer may hold several steps. Without it the model is not offered "steps", which
+     * would run as a plan nobody asked for
+     */
+    public static JSONObject schema(boolean planning) {
+
+        JSONObject actions = new JSONObject()
+            .put("type", "array")
+            .put("description", "Actions of the step: inputs first, then at most one click")
+            .put("items", new JSONObject()
+                .put("type", "object")
+                .put("properties", new JSONObject()
+                    .put("action", new JSONObject().put("type", "string").put("enum", new JSONArray().put("click").put("input")))
+                    .put("id", new JSONObject().put("type", "string").put("description", "Id of an element available to interact with"))
+                    .put("value", new JSONObject().put("type", "string")))
+                .put("required", new JSONArray().put("action").put("id")));
+        JSONObject properties = new JSONObject()
+            .put("explanation", new JSONObject().put("type", "string"))
+            .put("actions", actions)
+            .put("status", new JSONObject()
+                .put("type", "string")
+                .put("description", "Only when the test case is completed")
+                .put("enum", new JSONArray().put("success").put("failure")));
+        if( planning ){
+            JSONObject expect = new JSONObject()
+                .put("type", "object")
+                .put("description", "How to tell the step worked")
+                .put("properties", new JSONObject()
+                    .put("type", new JSONObject().put("type", "string").put("enum", new JSONArray().put("element").put("text").put("url")))
+                    .put("value", new JSONObject().put("type", "string")))
+                .put("required", new JSONArray().put("type").put("value"));
+            properties.put("steps", new JSONObject()
+                .put("type", "array")
+                .put("description", "Several steps at once, only when asked to plan ahead")
+                .put("items", new JSONObject()
+                    .put("type", "object")
+                    .put("properties", new JSONObject()
+                        .put("explanation", new JSONObject().put("type", "string"))
+                        .put("actions", actions)
+                        .put("expect", expect))
+                    .put("required", new JSONArray().put("explanation").put("actions"))));
+        }
+        return new JSONObject()
+            .put("type", "object")
+            .put("properties", properties)
+            .put("required", new JSONArray().put("explanation"));
+    }
+}
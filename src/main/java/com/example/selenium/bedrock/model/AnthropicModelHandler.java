@@ -1,37 +1,63 @@
 package com.example.selenium.bedrock.model;
 
-import java.io.File;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONObject;
 
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
-import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
 
 public class AnthropicModelHandler implements ModelHandler {
 
     private static Logger logger = LogManager.getLogger(AnthropicModelHandler.class);
+    private final boolean promptCaching;
+    private final boolean structuredOutput;
+
+    public AnthropicModelHandler() {
+        this(false);
+    }
+
+    public AnthropicModelHandler(boolean promptCaching) {
+        this(promptCaching, false);
+    }
+
+    /**
+     * @param promptCaching whether the model supports prompt caching. The last system block is then a cache
+     * checkpoint, so the tools and system blocks are read from the cache by the following calls. A checkpoint on
+     * each block would be wasted: the test case alone is far below the minimum size of a cached prefix.
+     * @param structuredOutput force a call to the {@link AnswerTool}, its streamed input is the text of the response
+     */
+    public AnthropicModelHandler(boolean promptCaching, boolean structuredOutput) {
+        this.promptCaching = promptCaching;
+        this.structuredOutput = structuredOutput;
+    }
+
     @Override
-    public JSONObject createPayload(String prompt, Integer maxTokens, Double temperature) {
-        var payload = new JSONObject()
+    public JSONObject createPayload(Prompt prompt, Integer maxTokens, Double temperature) {
+        var payload = history(new JSONObject()
         .put("anthropic_version", "bedrock-2023-05-31")
         .put("max_tokens", maxTokens)
-        .put("temperature", temperature)
+        .put("temperature", temperature), prompt)
         .append("messages", new JSONObject()
                 .put("role", "user")
                 .append("content", new JSONObject()
                         .put("type", "text")
-                        .put("text", prompt)
+                        .put("text", prompt.user())
                 ));
-
-        return payload;
+        if( structuredOutput ){
+            //tools come before the system blocks in the cached prefix
+            payload.append("tools", new JSONObject()
+                    .put("name", AnswerTool.NAME)
+                    .put("description", AnswerTool.DESCRIPTION)
+                    .put("input_schema", AnswerTool.schema(prompt.planning())))
+                .put("tool_choice", new JSONObject()
+                    .put("type", "tool")
+                    .put("name", AnswerTool.NAME));
+        }
+        return system(payload, prompt);
     }
 
     @Override
-    public JSONObject createPayload(String prompt, File imageLocation, Integer maxTokens, Double temperature) {
+    public JSONObject createPayload(Prompt prompt, Base64Image image, Integer maxTokens, Double temperature) {
         JSONObject requestBody = new JSONObject()
             .put("anthropic_version", "bedrock-2023-05-31")
             .put("max_tokens", maxTokens)
@@ -40,67 +66,113 @@ public class AnthropicModelHandler implements ModelHandler {
                     .put("role", "user")
                     .append("content", new JSONObject()                                
                                     .put("type", "text")
-                                    .put("text", prompt))
+                                    .put("text", prompt.user()))
                     .append("content", new JSONObject()
                                     .put("type", "image")
                                     .put("source", new JSONObject()
                                             .put("type", "base64")
-                                            .put("media_type", "image/png")
-                                            .put("data", ModelHandler.encodeImageToBase64(imageLocation))))
+                                            .put("media_type", image.getMediaType())
+                                            .put("data", image)))
                     );
-        return requestBody;
+        return system(requestBody, prompt);
     }
 
-    @Override
-    public InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(JSONObject structuredResponse) {
+    /**
+     * Earlier turns of the conversation. With prompt caching the last one is a cache checkpoint: the history only
+     * grows, so the next call reads it from the cache up to there.
+     */
+    private JSONObject history(JSONObject payload, Prompt prompt) {
 
-                AtomicReference<String> completeMessage = new AtomicReference<>("");
+        for( int i=0; i<prompt.history().size(); i++ ){
+            JSONObject block = new JSONObject()
+                .put("type", "text")
+                .put("text", prompt.history().get(i));
+            if( promptCaching && i == prompt.history().size() - 1 ){
+                block.put("cache_control", new JSONObject().put("type", "ephemeral"));
+            }
+            payload.append("messages", new JSONObject()
+                .put("role", i % 2 == 0 ? "user" : "assistant")
+                .append("content", block));
+        }
+        return payload;
+    }
+
+    private JSONObject system(JSONObject payload, Prompt prompt) {
+
+        for( int i=0; i<prompt.system().size(); i++ ){
+            JSONObject block = new JSONObject()
+                .put("type", "text")
+                .put("text", prompt.system().get(i));
+            if( promptCaching && i == prompt.system().size() - 1 ){
+                block.put("cache_control", new JSONObject().put("type", "ephemeral"));
+            }
+            payload.append("system", block);
+        }
+        return payload;
+    }
 
-        Consumer<ResponseStream> responseStreamHandler = event -> event.accept(InvokeModelWithResponseStreamResponseHandler.Visitor.builder()
-                .onChunk(c -> {
+    @Override
+    public InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(StreamedResponse response) {
+
+        JSONObject structuredResponse = response.getStructured();
+        ChunkDecoder decoder = new ChunkDecoder();
+        //the input of a tool call is streamed as partial JSON instead of text, requests that do not force the tool
+        //(images) still answer with text
+        String deltaKey = structuredOutput ? "partial_json" : "text";
+        String otherKey = structuredOutput ? "text" : "partial_json";
+        return response.handler(c -> {
+                    // Text deltas are read straight from the bytes of the chunk
+                    CharSequence fragment = decoder.string(c.bytes().asByteBuffer(), "delta", deltaKey);
+                    if( fragment == null && structuredOutput ){
+                        fragment = decoder.string(c.bytes().asByteBuffer(), "delta", otherKey);
+                    }
+                    if( fragment != null ){
+                        if( logger.isDebugEnabled() )
+                            logger.debug(fragment.toString());
+                        response.text(fragment);
+                        return;
+                    }
                     // Decode the chunk
                     var chunk = new JSONObject(c.bytes().asUtf8String());
 
                     // The Messages API returns different types:
                     var chunkType = chunk.getString("type");
                     if ("message_start".equals(chunkType)) {
-                        // The first chunk contains information about the message role
-                        String role = chunk.optJSONObject("message").optString("role");
-                        structuredResponse.put("role", role);
+                        // The first chunk contains information about the message role and the input tokens
+                        JSONObject message = chunk.optJSONObject("message");
+                        structuredResponse.put("role", message.optString("role"));
+                        JSONObject usage = message.optJSONObject("usage");
+                        if( usage != null ){
+                            ModelHandler.usage(usage.optLong("input_tokens"), usage.optLong("cache_read_input_tokens"),
+                                usage.optLong("cache_creation_input_tokens"), response.metrics());
+                        }
 
                     } else if ("content_block_delta".equals(chunkType)) {
                         // These chunks contain the text fragments
-                        var text = chunk.optJSONObject("delta").optString("text");
+                        var delta = chunk.optJSONObject("delta");
+                        var text = delta.has(deltaKey) ? delta.optString(deltaKey) : delta.optString(otherKey);
                         // Print the text fragment to the console ...
                         if( logger.isDebugEnabled() )
                             logger.debug(text);
-                        // ... and append it to the complete message
-                        completeMessage.getAndUpdate(current -> current + text);
+                        // ... and append it to the complete message, which may complete the response
+                        response.text(text);
 
                     } else if ("message_delta".equals(chunkType)) {
                         // This chunk contains the stop reason
                         var stopReason = chunk.optJSONObject("delta").optString("stop_reason");
                         structuredResponse.put("stop_reason", stopReason);
+                        JSONObject usage = chunk.optJSONObject("usage");
+                        if( usage != null ){
+                            ModelHandler.outputTokens(usage.optLong("output_tokens"), response.metrics());
+                        }
 
                     } else if ("message_stop".equals(chunkType)) {
-                        // The last chunk contains the metrics
+                        // The last chunk contains the latencies, the tokens were counted by the previous ones
                         JSONObject metrics = chunk.optJSONObject("amazon-bedrock-invocationMetrics");
-                        structuredResponse.put("metrics", new JSONObject()
-                                .put("inputTokenCount", metrics.optString("inputTokenCount"))
-                                .put("outputTokenCount", metrics.optString("outputTokenCount"))
-                                .put("firstByteLatency", metrics.optString("firstByteLatency"))
-                                .put("invocationLatency", metrics.optString("invocationLatency")));
+                        if( metrics != null ){
+                            ModelHandler.latencies(metrics, response.metrics());
+                        }
                     }
-                })
-                .build());
-
-        return InvokeModelWithResponseStreamResponseHandler.builder()
-                .onEventStream(stream -> stream.subscribe(responseStreamHandler))
-                .onComplete(() ->
-                        // Add the complete message to the response object
-                        structuredResponse.append("content", new JSONObject()
-                                .put("type", "text")
-                                .put("text", completeMessage.get())))
-                .build();
+                });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package com.example.selenium.bedrock.model;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Image of a payload, kept as its file or its bytes until the payload is written. {@link PayloadWriter} streams it
+ * as base64 straight into the request body, without its base64 text in memory.
+ */
+public final class Base64Image implements JSONString {
+
+    private final File file;
+    private final byte[] bytes;
+    private final String format;
+
+    /**
+     * PNG file.
+     */
+    public Base64Image(File file) {
+        this.file = file;
+        this.bytes = null;
+        this.format = "png";
+    }
+
+    /**
+     * @param format png, jpeg or webp
+     */
+    public Base64Image(byte[] bytes, String format) {
+        this.file = null;
+        this.bytes = bytes;
+        this.format = format;
+    }
+
+    /**
+     * The file of the image, null for an image in memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getMediaType() {
+        return "image/"+format;
+    }
+
+    /**
+     * Writes the base64 encoding of the image, without quotes.
+     */
+    public void encodeTo(OutputStream out) throws IOException {
+
+        //closing the encoder writes the padding, the output stays open
+        try( OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(out){
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                }
+             }) ){
+            if( bytes != null ){
+                encoder.write(bytes);
+                return;
+            }
+            try( InputStream in = Files.newInputStream(file.toPath()) ){
+                in.transferTo(encoder);
+            }
+        }
+    }
+
+    /**
+     * The quoted base64 text, for code that serializes the payload as a string.
+     */
+    @Override
+    public String toJSONString() {
+
+        try{
+            return JSONObject.quote(Base64.getEncoder().encodeToString(bytes != null ? bytes : Files.readAllBytes(file.toPath())));
+        }catch(IOException e){
+            throw new UncheckedIOException("Could not encode image to Base64. File: "+file.getAbsolutePath(), e);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.selenium.bedrock.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads one string field of a streamed chunk straight from its UTF-8 bytes, without decoding the whole chunk or
+ * building a JSON object. Text deltas are almost every chunk of a stream, the few other chunks are parsed whole by
+ * the handlers.
+ *
+ * The decoded string is written into a buffer that is reused by the next call, so an instance belongs to one stream.
+ */
+public class ChunkDecoder {
+
+    private final StringBuilder value = new StringBuilder();
+    private ByteBuffer in;
+    private int pos;
+
+    /**
+     * The string at path, e.g. "delta", "text" for {"delta":{"text":"..."}}.
+     * @return the value, valid until the next call, or null when the chunk has no string at path
+     */
+    public CharSequence string(ByteBuffer chunk, String... path) {
+
+        in = chunk;
+        pos = chunk.position();
+        value.setLength(0);
+        try{
+            skipWhitespace();
+            if( next() != '{' ){
+                return null;
+            }
+            for( int level=0; level<path.length; level++ ){
+                if( !findKey(path[level]) ){
+                    return null;
+                }
+                skipWhitespace();
+                if( level < path.length-1 ){
+                    if( next() != '{' ){
+                        return null;
+                    }
+                }else if( peek() != '"' ){
+                    return null;
+                }
+            }
+            pos++;
+            readString(value);
+            return value;
+        }catch(IndexOutOfBoundsException | NumberFormatException e){
+            //truncated, not an object or a malformed unicode escape: parsed whole by the handler instead
+            return null;
+        }finally{
+            in = null;
+        }
+    }
+
+    /**
+     * Moves past the key of the current object, before its value. Expects to be right after the opening brace.
+     */
+    private boolean findKey(String key) {
+
+        while( true ){
+            skipWhitespace();
+            int c = next();
+            if( c == '}' ){
+                return false;
+            }
+            if( c == ',' ){
+                continue;
+            }
+            if( c != '"' ){
+                return false;
+            }
+            boolean match = matchKey(key);
+            skipWhitespace();
+            if( next() != ':' ){
+                return false;
+            }
+            if( match ){
+                return true;
+            }
+            skipValue();
+        }
+    }
+
+    //compares the key without decoding it, keys of the chunks are plain ASCII
+    private boolean matchKey(String key) {
+
+        int start = pos;
+        skipString();
+        int length = pos - start - 1;
+        if( length != key.length() ){
+            return false;
+        }
+        for( int i=0; i<length; i++ ){
+            if( in.get(start+i) != key.charAt(i) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipValue() {
+
+        skipWhitespace();
+        int c = next();
+        if( c == '"' ){
+            skipString();
+        }else if( c == '{' || c == '[' ){
+            int depth = 1;
+            while( depth > 0 ){
+                c = next();
+                if( c == '"' ){
+                    skipString();
+                }else if( c == '{' || c == '[' ){
+                    depth++;
+                }else if( c == '}' || c == ']' ){
+                    depth--;
+                }
+            }
+        }else{
+            //number, true, false or null
+            while( true ){
+                c = peek();
+                if( c == ',' || c == '}' || c == ']' || isWhitespace(c) ){
+                    return;
+                }
+                pos++;
+            }
+        }
+    }
+
+    private void skipString() {
+
+        while( true ){
+            int c = next();
+            if( c == '\\' ){
+                pos++;
+            }else if( c == '"' ){
+                return;
+            }
+        }
+    }
+
+    private void readString(StringBuilder out) {
+
+        while( true ){
+            int c = next();
+            if( c == '"' ){
+                return;
+            }
+            if( c == '\\' ){
+                c = next();
+                switch( c ){
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        out.append(hex());
+                        break;
+                    default: out.append((char)c);
+                }
+            }else if( c < 0x80 ){
+                out.append((char)c);
+            }else if( c < 0xE0 ){
+                out.append((char)(((c & 0x1F) << 6) | (next() & 0x3F)));
+            }else if( c < 0xF0 ){
+                out.append((char)(((c & 0x0F) << 12) | ((next() & 0x3F) << 6) | (next() & 0x3F)));
+            }else{
+                int codePoint = ((c & 0x07) << 18) | ((next() & 0x3F) << 12) | ((next() & 0x3F) << 6) | (next() & 0x3F);
+                out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+            }
+        }
+    }
+
+    //the 4 hex digits of a unicode escape, Integer.parseInt would also take a sign
+    private char hex() {
+
+        int code = 0;
+        for( int i=0; i<4; i++ ){
+            int digit = Character.digit(next(), 16);
+            if( digit < 0 ){
+                throw new NumberFormatException("Malformed unicode escape at "+(pos-1));
+            }
+            code = (code << 4) | digit;
+        }
+        return (char)code;
+    }
+
+    private void skipWhitespace() {
+        while( isWhitespace(peek()) ){
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int peek() {
+        return in.get(pos) & 0xFF;
+    }
+
+    private int next() {
+        return in.get(pos++) & 0xFF;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.selenium.bedrock.model;
+
+/**
+ * Finds the first top-level JSON object of a streamed response while it is generated. Text before the object is
+ * skipped and braces inside strings are ignored, so the object is known to be complete as soon as its closing brace
+ * arrives, without waiting for the end of the stream.
+ *
+ * Raw line breaks and tabs inside strings are escaped, models sometimes write them and the JSON parser rejects them.
+ */
+public class JsonObjectScanner {
+
+    private final StringBuilder object = new StringBuilder();
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean complete = false;
+
+    /**
+     * Consumes the next fragment of the response.
+     * @return true once the object is complete, the rest of the response can be ignored
+     */
+    public boolean feed(CharSequence fragment) {
+
+        for( int i=0; i<fragment.length() && !complete; i++ ){
+            char c = fragment.charAt(i);
+            if( depth == 0 ){
+                if( c == '{' ){
+                    object.append(c);
+                    depth = 1;
+                }
+                continue;
+            }
+            if( inString ){
+                if( escaped ){
+                    escaped = false;
+                }else if( c == '\\' ){
+                    escaped = true;
+                }else if( c == '"' ){
+                    inString = false;
+                }else if( c == '\n' ){
+                    object.append("\\n");
+                    continue;
+                }else if( c == '\r' ){
+                    object.append("\\r");
+                    continue;
+                }else if( c == '\t' ){
+                    object.append("\\t");
+                    continue;
+                }
+            }else if( c == '"' ){
+                inString = true;
+            }else if( c == '{' || c == '[' ){
+                depth++;
+            }else if( c == '}' || c == ']' ){
+                depth--;
+                complete = depth == 0;
+            }
+            object.append(c);
+        }
+        return complete;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The object, or null when the response did not contain a complete one.
+     */
+    public String getObject() {
+        return complete ? object.toString() : null;
+    }
+}
@@ -1,28 +1,93 @@
 package com.example.selenium.bedrock.model;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
 
+import com.example.selenium.metrics.Metrics;
+
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
 
 public interface ModelHandler {
-    JSONObject createPayload(String prompt, Integer maxTokens, Double temperature);
-    JSONObject createPayload(String prompt, File imageLocation, Integer maxTokens, Double temperature);
-    InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(JSONObject structuredResponse);
+    JSONObject createPayload(Prompt prompt, Integer maxTokens, Double temperature);
+    JSONObject createPayload(Prompt prompt, Base64Image image, Integer maxTokens, Double temperature);
+    InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(StreamedResponse response);
+
+    default JSONObject createPayload(String prompt, Integer maxTokens, Double temperature) {
+        return createPayload(Prompt.of(prompt), maxTokens, temperature);
+    }
+
+    default JSONObject createPayload(Prompt prompt, File imageLocation, Integer maxTokens, Double temperature) {
+        return createPayload(prompt, new Base64Image(imageLocation), maxTokens, temperature);
+    }
+
+    default JSONObject createPayload(String prompt, File imageLocation, Integer maxTokens, Double temperature) {
+        return createPayload(Prompt.of(prompt), imageLocation, maxTokens, temperature);
+    }
+
+    /**
+     * Payloads hold a {@link Base64Image} instead, written by the {@link PayloadWriter} without this string.
+     */
     public static String encodeImageToBase64(File file) {
 
         byte[] bytes;
-        try (FileInputStream fileInputStream = new FileInputStream(file)){
-            bytes = new byte[(int) file.length()];
-            fileInputStream.read(bytes);
+        try{
+            bytes = Files.readAllBytes(file.toPath());
         } catch (IOException e) {
-            e.printStackTrace();
             throw new RuntimeException("Could not encode image to Base64. File: "+file.getAbsolutePath(), e);
         }
         return Base64.getEncoder().encodeToString(bytes);
-    }    
-}
\ No newline at end of file
+    }
+
+    /**
+     * Records the amazon-bedrock-invocationMetrics of the last chunk of a stream and returns them for the response.
+     *
+     * Metrics: bedrock.first.byte and bedrock.invocation timers, bedrock.input.tokens, bedrock.output.tokens,
+     * bedrock.cache.read.tokens and bedrock.cache.write.tokens counters.
+     */
+    public static JSONObject invocationMetrics(JSONObject metrics) {
+
+        JSONObject recorded = new JSONObject();
+        usage(metrics.optLong("inputTokenCount", 0), metrics.optLong("cacheReadInputTokenCount", 0),
+            metrics.optLong("cacheWriteInputTokenCount", 0), recorded);
+        outputTokens(metrics.optLong("outputTokenCount", 0), recorded);
+        return latencies(metrics, recorded);
+    }
+
+    /**
+     * Records the input tokens of a call. Anthropic models report them in message_start, before the text, so they
+     * are known even when the rest of the stream is cancelled.
+     */
+    public static JSONObject usage(long input, long cacheRead, long cacheWrite, JSONObject recorded) {
+
+        Metrics.add("bedrock.input.tokens", input);
+        Metrics.add("bedrock.cache.read.tokens", cacheRead);
+        Metrics.add("bedrock.cache.write.tokens", cacheWrite);
+        return recorded
+                .put("inputTokenCount", String.valueOf(input))
+                .put("cacheReadInputTokenCount", cacheRead)
+                .put("cacheWriteInputTokenCount", cacheWrite);
+    }
+
+    public static JSONObject outputTokens(long output, JSONObject recorded) {
+
+        Metrics.add("bedrock.output.tokens", output);
+        return recorded.put("outputTokenCount", String.valueOf(output));
+    }
+
+    /**
+     * Records the latencies measured by the service, only sent with the last chunk of a stream.
+     */
+    public static JSONObject latencies(JSONObject metrics, JSONObject recorded) {
+
+        Metrics.record("bedrock.first.byte", TimeUnit.MILLISECONDS.toNanos(metrics.optLong("firstByteLatency", 0)));
+        Metrics.record("bedrock.invocation", TimeUnit.MILLISECONDS.toNanos(metrics.optLong("invocationLatency", 0)));
+        return recorded
+                .put("firstByteLatency", metrics.optString("firstByteLatency"))
+                .put("invocationLatency", metrics.optString("invocationLatency"));
+    }
+}
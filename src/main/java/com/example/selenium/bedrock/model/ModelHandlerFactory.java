@@ -4,19 +4,37 @@ import com.example.selenium.bedrock.BedrockClient;
 
 public class ModelHandlerFactory {
     public static ModelHandler createModelHandler(String modelName) {
-        switch (modelName.toLowerCase()) {
-            case BedrockClient.CLAUDE_SONNET:
-                return new AnthropicModelHandler();
-            case BedrockClient.CLAUDE_SONNET_3_5:
-                return new AnthropicModelHandler();
-            case BedrockClient.CLAUDE_SONNET_3_5_V2:
-                return new AnthropicModelHandler();
-            case BedrockClient.CLAUDE_SONNET_3_7:
-                return new AnthropicModelHandler();
-            case BedrockClient.NOVA_PRO:
-                return new NovaModelHandler();
-            default:
-                throw new IllegalArgumentException("Unsupported model: " + modelName);
+        return createModelHandler(modelName, false);
+    }
+
+    /**
+     * Handler of the model family, whatever the geography of its inference profile: us., eu. and apac. IDs of a
+     * model share their handler.
+     * @param structuredOutput answers come through the {@link AnswerTool} instead of free text
+     */
+    public static ModelHandler createModelHandler(String modelName, boolean structuredOutput) {
+        String family = family(modelName);
+        if( family.equals(family(BedrockClient.CLAUDE_SONNET_3_7)) || family.equals(family(BedrockClient.CLAUDE_HAIKU_3_5)) ){
+            //prompt caching is generally available on Bedrock for Claude 3.7 Sonnet and 3.5 Haiku
+            return new AnthropicModelHandler(true, structuredOutput);
+        }
+        if( family.equals(family(BedrockClient.CLAUDE_SONNET))
+                || family.equals(family(BedrockClient.CLAUDE_SONNET_3_5))
+                //the default model: prompt caching is not generally available for it, its prompts are not cached
+                || family.equals(family(BedrockClient.CLAUDE_SONNET_3_5_V2))
+                || family.equals(family(BedrockClient.CLAUDE_HAIKU)) ){
+            return new AnthropicModelHandler(false, structuredOutput);
         }
+        if( family.equals(family(BedrockClient.NOVA_PRO))
+                || family.equals(family(BedrockClient.NOVA_LITE))
+                || family.equals(family(BedrockClient.NOVA_MICRO)) ){
+            return new NovaModelHandler(structuredOutput);
+        }
+        throw new IllegalArgumentException("Unsupported model: " + modelName);
+    }
+
+    //the model ID without the geography of a cross-region inference profile
+    private static String family(String modelId) {
+        return modelId.toLowerCase().replaceFirst("^(us|eu|apac|us-gov)\\.", "");
     }
-}
\ No newline at end of file
+}
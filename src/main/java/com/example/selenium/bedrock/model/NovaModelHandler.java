@@ -1,39 +1,61 @@
 package com.example.selenium.bedrock.model;
 
-import java.io.File;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONObject;
 
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
-import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
 
 public class NovaModelHandler implements ModelHandler {
 
     private static Logger logger = LogManager.getLogger(NovaModelHandler.class);
+    private final boolean structuredOutput;
+
+    public NovaModelHandler() {
+        this(false);
+    }
+
+    /**
+     * @param structuredOutput force a call to the {@link AnswerTool}, its streamed input is the text of the response
+     */
+    public NovaModelHandler(boolean structuredOutput) {
+        this.structuredOutput = structuredOutput;
+    }
 
     @Override
-    public JSONObject createPayload(String prompt, Integer maxTokens, Double temperature) {
+    public JSONObject createPayload(Prompt prompt, Integer maxTokens, Double temperature) {
         JSONObject requestObject =  new JSONObject()
             .put("schemaVersion", "messages-v1")
             .put("inferenceConfig", new JSONObject()
                 .put("max_new_tokens", 1000)
-                .put("temperature", temperature))
+                .put("temperature", temperature));
                 // .put("top_p", 0.1d))
-            .append("messages", new JSONObject()
+        //earlier turns of the conversation, then the step
+        for( int i=0; i<prompt.history().size(); i++ ){
+            requestObject.append("messages", new JSONObject()
+                .put("role", i % 2 == 0 ? "user" : "assistant")
+                .append("content", new JSONObject().put("text", prompt.history().get(i))));
+        }
+        requestObject.append("messages", new JSONObject()
                     .put("role", "user")
                     .append("content", new JSONObject()
-                        .put("text", prompt)));
-        return requestObject;
+                        .put("text", prompt.user())));
+        if( structuredOutput ){
+            requestObject.put("toolConfig", new JSONObject()
+                .append("tools", new JSONObject()
+                    .put("toolSpec", new JSONObject()
+                        .put("name", AnswerTool.NAME)
+                        .put("description", AnswerTool.DESCRIPTION)
+                        .put("inputSchema", new JSONObject().put("json", AnswerTool.schema(prompt.planning())))))
+                .put("toolChoice", new JSONObject()
+                    .put("tool", new JSONObject().put("name", AnswerTool.NAME))));
+        }
+        return system(requestObject, prompt);
     }
 
     @Override
-    public JSONObject createPayload(String prompt, File imageLocation, Integer maxTokens, Double temperature) {
+    public JSONObject createPayload(Prompt prompt, Base64Image image, Integer maxTokens, Double temperature) {
 
-        String imageBase64 = ModelHandler.encodeImageToBase64(imageLocation);
         JSONObject requestObject =  new JSONObject()
             .put("schemaVersion", "messages-v1")
             .put("inferenceConfig", new JSONObject()
@@ -42,22 +64,48 @@ public class NovaModelHandler implements ModelHandler {
             .append("messages", new JSONObject()
                     .put("role", "user")
                     .append("content", new JSONObject()
-                        .put("text", prompt))
+                        .put("text", prompt.user()))
                     .append("content", new JSONObject()
                         .put("image", new JSONObject()
-                            .put("format", "png")
+                            .put("format", image.getFormat())
                             .put("source", new JSONObject()
-                                .put("bytes", imageBase64)))));
-        return requestObject;
+                                .put("bytes", image)))));
+        return system(requestObject, prompt);
+    }
+
+    //plain system blocks, without cache points
+    private static JSONObject system(JSONObject payload, Prompt prompt) {
+
+        for( String text : prompt.system() ){
+            payload.append("system", new JSONObject().put("text", text));
+        }
+        return payload;
     }
 
     @Override
-    public InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(JSONObject structuredResponse) {
-                AtomicReference<String> completeMessage = new AtomicReference<>("");
-    
-        Consumer<ResponseStream> responseStreamHandler = event -> event.accept(InvokeModelWithResponseStreamResponseHandler.Visitor.builder()
-                .onChunk(c -> {
+    public InvokeModelWithResponseStreamResponseHandler createResponseStreamHandler(StreamedResponse response) {
+
+        JSONObject structuredResponse = response.getStructured();
+        ChunkDecoder decoder = new ChunkDecoder();
+        //the input of a tool call is streamed as a string in a toolUse delta instead of text, requests that do not
+        //force the tool (images) still answer with text
+        String[] textPath = { "contentBlockDelta", "delta", "text" };
+        String[] deltaPath = structuredOutput ? new String[]{ "contentBlockDelta", "delta", "toolUse", "input" } : textPath;
+        return response.handler(c -> {
                     try {
+                        // Text deltas are read straight from the bytes of the chunk
+                        CharSequence fragment = decoder.string(c.bytes().asByteBuffer(), deltaPath);
+                        if (fragment == null && structuredOutput) {
+                            fragment = decoder.string(c.bytes().asByteBuffer(), textPath);
+                        }
+                        if (fragment != null) {
+                            if (logger.isDebugEnabled()) {
+                                logger.debug(fragment.toString());
+                            }
+                            response.text(fragment);
+                            return;
+                        }
+
                         // Decode the chunk
                         var chunk = new JSONObject(c.bytes().asUtf8String());
                         
@@ -67,24 +115,24 @@ public class NovaModelHandler implements ModelHandler {
                             // Extract the text from the delta
                             var delta = contentBlockDelta.optJSONObject("delta");
                             if (delta != null) {
-                                var text = delta.optString("text", "");
+                                var toolUse = delta.optJSONObject("toolUse");
+                                var text = toolUse != null ? toolUse.optString("input", "") : delta.optString("text", "");
                                 // Print the text fragment to the console if debug is enabled
                                 if (logger.isDebugEnabled()) {
                                     logger.debug(text);
                                 }
-                                // Append it to the complete message
-                                completeMessage.getAndUpdate(current -> current + text);
+                                // Append it to the complete message, which may complete the response
+                                response.text(text);
                             }
                         }
     
                         // Handle completion metrics
                         var metrics = chunk.optJSONObject("amazon-bedrock-invocationMetrics");
                         if (metrics != null) {
-                            structuredResponse.put("metrics", new JSONObject()
-                                    .put("inputTokenCount", metrics.optString("inputTokenCount"))
-                                    .put("outputTokenCount", metrics.optString("outputTokenCount"))
-                                    .put("firstByteLatency", metrics.optString("firstByteLatency"))
-                                    .put("invocationLatency", metrics.optString("invocationLatency")));
+                            //next to the time to first token measured by the client
+                            JSONObject recorded = ModelHandler.invocationMetrics(metrics);
+                            JSONObject target = response.metrics();
+                            recorded.keySet().forEach(k -> target.put(k, recorded.get(k)));
                         }
     
                         // Handle stop reason if present
@@ -95,16 +143,6 @@ public class NovaModelHandler implements ModelHandler {
                     } catch (Exception e) {
                         logger.error("Error processing chunk: " + e.getMessage(), e);
                     }
-                })
-                .build());
-    
-        return InvokeModelWithResponseStreamResponseHandler.builder()
-                .onEventStream(stream -> stream.subscribe(responseStreamHandler))
-                .onComplete(() ->
-                        // Add the complete message to the response object
-                        structuredResponse.append("content", new JSONObject()
-                                .put("type", "text")
-                                .put("text", completeMessage.get())))
-                .build();
+                });
     }
-}
\ No newline at end of file
+}
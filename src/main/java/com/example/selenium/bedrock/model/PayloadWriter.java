@@ -0,0 +1,115 @@
+package com.example.selenium.bedrock.model;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+/**
+ * Writes a payload as the UTF-8 body of a request in one pass: the JSON text is encoded into a pooled buffer and
+ * images ({@link Base64Image}) are streamed from their file or bytes as base64 into the same buffer. The only copy is the
+ * final one into the body, sized exactly, after which the buffer goes back to the pool.
+ *
+ * Without it, a request with a screenshot held the image bytes, their base64 text, the payload text while it grew,
+ * the payload string and its UTF-8 bytes at the same time.
+ *
+ * Metrics: bedrock.payload.bytes counter.
+ */
+public final class PayloadWriter {
+
+    private static final int POOLED = 16;
+    private static final int INITIAL_SIZE = 64 * 1024;
+    //buffers grown by an unusually large payload are left to the garbage collector
+    private static final int MAX_POOLED_SIZE = 16 * 1024 * 1024;
+    private static final BlockingQueue<Buffer> pool = new ArrayBlockingQueue<>(POOLED);
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        //JSONObject.quote writes one char at a time, the encoder would wrap every one of them
+        private final Writer writer = new BufferedWriter(new OutputStreamWriter(this, StandardCharsets.UTF_8), 8192);
+
+        Buffer() {
+            super(INITIAL_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    private PayloadWriter() {
+    }
+
+    public static SdkBytes write(JSONObject payload) {
+
+        Buffer out = pool.poll();
+        if( out == null ){
+            out = new Buffer();
+        }
+        try{
+            value(payload, out);
+            out.writer.flush();
+        }catch(IOException e){
+            //the writer may hold part of the payload, the buffer is not reused
+            throw new UncheckedIOException("Could not write payload. Msg: "+e.getMessage(), e);
+        }
+        Metrics.add("bedrock.payload.bytes", out.size());
+        //the body does not share the buffer, so retries of the request never see it reused
+        SdkBytes body = SdkBytes.fromByteArrayUnsafe(out.toByteArray());
+        out.reset();
+        if( out.capacity() <= MAX_POOLED_SIZE ){
+            pool.offer(out);
+        }
+        return body;
+    }
+
+    private static void value(Object value, Buffer out) throws IOException {
+
+        Writer w = out.writer;
+        if( value instanceof JSONObject object ){
+            w.write('{');
+            boolean first = true;
+            for( String key : object.keySet() ){
+                if( !first ){
+                    w.write(',');
+                }
+                first = false;
+                JSONObject.quote(key, w);
+                w.write(':');
+                value(object.get(key), out);
+            }
+            w.write('}');
+        }else if( value instanceof JSONArray array ){
+            w.write('[');
+            for( int i=0; i<array.length(); i++ ){
+                if( i > 0 ){
+                    w.write(',');
+                }
+                value(array.get(i), out);
+            }
+            w.write(']');
+        }else if( value instanceof String text ){
+            JSONObject.quote(text, w);
+        }else if( value instanceof Base64Image image ){
+            //base64 is ASCII, written as bytes after the text before it
+            w.write('"');
+            w.flush();
+            image.encodeTo(out);
+            w.write('"');
+        }else{
+            w.write(JSONObject.valueToString(value));
+        }
+    }
+}
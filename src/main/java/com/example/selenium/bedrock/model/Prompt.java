@@ -0,0 +1,44 @@
+package com.example.selenium.bedrock.model;
+
+import java.util.List;
+
+/**
+ * Prompt split by how often its parts change. The system blocks come first and are the same on every step of a
+ * test (the instructions, then the test case), so models that support prompt caching can reuse them. The history
+ * holds earlier turns of the conversation, alternating user and assistant messages, and only grows between calls.
+ * The user message changes on every step.
+ *
+ * With planning, the answer may hold several steps: the schema of the {@link AnswerTool} only has them then.
+ */
+public record Prompt(List<String> system, List<String> history, String user, boolean planning) {
+
+    public Prompt {
+        if( history.size() % 2 != 0 ){
+            throw new IllegalArgumentException("History must alternate user and assistant messages");
+        }
+    }
+
+    public Prompt(List<String> system, List<String> history, String user) {
+        this(system, history, user, false);
+    }
+
+    public Prompt(List<String> system, String user) {
+        this(system, List.of(), user);
+    }
+
+    public static Prompt of(String user) {
+        return new Prompt(List.of(), user);
+    }
+
+    public int length() {
+
+        int length = user.length();
+        for( String block : system ){
+            length += block.length();
+        }
+        for( String message : history ){
+            length += message.length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.selenium.bedrock.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
+import software.amazon.awssdk.services.bedrockruntime.model.PayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
+
+/**
+ * Response of a streamed invocation, built by a model handler from the chunks of the stream. The first JSON object of
+ * the text is always extracted, text around it is dropped. With early completion, the result is available as soon as
+ * that object is complete: the subscription to the stream is cancelled and the caller can cancel the request so the
+ * model stops generating.
+ *
+ * The time to the first token is measured here, from the start of the call: the invocation metrics of the service
+ * come with the last chunk, which a cancelled stream never gets.
+ *
+ * Metrics: bedrock.stream.early counter, bedrock.first.token timer.
+ */
+public class StreamedResponse {
+
+    private final JSONObject structured = new JSONObject();
+    //grows once per stream instead of copying the whole text on every chunk
+    private final StringBuilder text = new StringBuilder(1024);
+    private final JsonObjectScanner scanner = new JsonObjectScanner();
+    private final boolean earlyCompletion;
+    private final long start = System.nanoTime();
+    private final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+    private volatile Subscription subscription = null;
+    private volatile boolean completedEarly = false;
+    private boolean firstToken = true;
+
+    /**
+     * Created when the call starts.
+     * @param earlyCompletion complete the response and cancel the stream once the JSON object is complete
+     */
+    public StreamedResponse(boolean earlyCompletion) {
+        this.earlyCompletion = earlyCompletion;
+    }
+
+    /**
+     * Fields of the response other than its text: role, stop_reason and metrics.
+     */
+    public JSONObject getStructured() {
+        return structured;
+    }
+
+    /**
+     * Metrics of the response, filled as the chunks that carry them arrive.
+     */
+    public synchronized JSONObject metrics() {
+
+        JSONObject metrics = structured.optJSONObject("metrics");
+        if( metrics == null ){
+            metrics = new JSONObject();
+            structured.put("metrics", metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Appends the next fragment of text.
+     */
+    public void text(CharSequence fragment) {
+
+        if( firstToken && fragment.length() > 0 ){
+            firstToken = false;
+            long nanos = System.nanoTime() - start;
+            Metrics.record("bedrock.first.token", nanos);
+            metrics().put("firstTokenLatency", String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+        text.append(fragment);
+        if( !scanner.isComplete() && scanner.feed(fragment) && earlyCompletion && !result.isDone() ){
+            completedEarly = true;
+            Metrics.increment("bedrock.stream.early");
+            complete();
+            Subscription s = subscription;
+            if( s != null ){
+                s.cancel();
+            }
+        }
+    }
+
+    /**
+     * The structured response with its text as a single content block: the JSON object when one was found, the
+     * whole text otherwise (free text answers, or an object cut short).
+     */
+    public CompletableFuture<JSONObject> result() {
+        return result;
+    }
+
+    public boolean completedEarly() {
+        return completedEarly;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    public synchronized void complete() {
+
+        if( result.isDone() ){
+            return;
+        }
+        String content = scanner.isComplete() ? scanner.getObject() : text.toString();
+        structured.append("content", new JSONObject()
+                .put("type", "text")
+                .put("text", content));
+        result.complete(structured);
+    }
+
+    public void fail(Throwable t) {
+        result.completeExceptionally(t);
+    }
+
+    /**
+     * Stream handler that passes every chunk to onChunk until the response is complete.
+     */
+    public InvokeModelWithResponseStreamResponseHandler handler(Consumer<PayloadPart> onChunk) {
+
+        InvokeModelWithResponseStreamResponseHandler.Visitor visitor = InvokeModelWithResponseStreamResponseHandler.Visitor.builder()
+                .onChunk(onChunk)
+                .build();
+        return InvokeModelWithResponseStreamResponseHandler.builder()
+                .onEventStream(stream -> stream.subscribe(new Subscriber<ResponseStream>() {
+                    @Override
+                    public void onSubscribe(Subscription s) {
+                        subscription = s;
+                        s.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(ResponseStream event) {
+                        if( !result.isDone() ){
+                            event.accept(visitor);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        fail(t);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                }))
+                .onComplete(this::complete)
+                .onError(this::fail)
+                .build();
+    }
+}
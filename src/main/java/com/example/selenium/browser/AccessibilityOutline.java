@@ -0,0 +1,82 @@
+package com.example.selenium.browser;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import com.example.selenium.html.HtmlElement;
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Describes the page as an indented outline of its accessibility tree, built by a single script in the page.
+ * There is one line per landmark, heading, live region and interactive element, with its role, accessible name,
+ * value, state and id:
+ * <pre>
+ * banner
+ *   searchbox "Search products" value="soccer ball" #search-box
+ *   button "Go" #search-submit
+ * main
+ *   heading "Results" [level=1]
+ *   link "FORZA Icon Soccer Ball" #a41f09c2
+ * </pre>
+ * Only the elements harvested for the step keep their id, the model can only act on those. Interactive elements
+ * that were not harvested (hidden or disabled for instance) are left out.
+ *
+ * Metrics: page.outline timer.
+ */
+public final class AccessibilityOutline {
+
+    //roles of accessibility-outline.js whose lines the model acts on. Options are kept without an id, they are the
+    //values of their select
+    private static final Set<String> INTERACTIVE = Set.of("link", "button", "textbox", "searchbox", "checkbox", "radio",
+        "combobox", "listbox", "menuitem", "menuitemcheckbox", "menuitemradio", "tab", "switch", "slider",
+        "spinbutton", "treeitem", "clickable");
+    //the id ends the line, names are quoted
+    private static final Pattern ID = Pattern.compile(" #([^\\s\"\\]]+)$");
+
+    private AccessibilityOutline() {
+    }
+
+    /**
+     * @param elements the elements harvested on the page, with their ids set on the page
+     */
+    public static String capture(WebDriver driver, List<HtmlElement> elements) {
+
+        long start = System.nanoTime();
+        Object outline = ((JavascriptExecutor)driver).executeScript(Scripts.load("accessibility-outline.js"));
+        Metrics.record("page.outline", System.nanoTime() - start);
+        return outline == null ? "" : restrict(outline.toString(), elements.stream().map(HtmlElement::getId).collect(Collectors.toSet()));
+    }
+
+    /**
+     * Keeps the ids of the harvested elements only, and drops the interactive lines without one.
+     */
+    static String restrict(String outline, Collection<String> ids) {
+
+        StringBuilder restricted = new StringBuilder(outline.length());
+        for( String line : outline.split("\n") ){
+            Matcher id = ID.matcher(line);
+            boolean harvested = false;
+            if( id.find() ){
+                harvested = ids.contains(id.group(1));
+                if( !harvested ){
+                    line = line.substring(0, id.start());
+                }
+            }
+            if( !harvested && INTERACTIVE.contains(line.strip().split(" ", 2)[0]) ){
+                continue;
+            }
+            if( restricted.length() > 0 ){
+                restricted.append('\n');
+            }
+            restricted.append(line);
+        }
+        return restricted.toString();
+    }
+}
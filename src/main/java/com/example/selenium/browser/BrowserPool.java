@@ -0,0 +1,326 @@
+package com.example.selenium.browser;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WindowType;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Keeps browser sessions warm and leases one per test. Chromium sessions are reset between leases: the tabs are
+ * replaced by a new one, and the cookies and the storage of every origin the tabs visited are cleared. Other browsers
+ * can only clear the origin they are on, their sessions are replaced after each lease instead. Sessions are also
+ * replaced after a number of uses or when they stop responding.
+ *
+ * Metrics: browser.pool.size, browser.pool.idle and browser.pool.leased gauges, browser.pool.lease.wait timer and
+ * browser.pool.created, browser.pool.recycled and browser.pool.crashed counters.
+ */
+public class BrowserPool {
+
+    private static final Logger logger = LogManager.getLogger(BrowserPool.class);
+
+    public static final String SIZE_PROPERTY = "test-automation.browser.pool.size";
+    public static final String WARM_PROPERTY = "test-automation.browser.pool.warm";
+    public static final String MAX_USES_PROPERTY = "test-automation.browser.max.uses";
+    public static final String LEASE_TIMEOUT_PROPERTY = "test-automation.browser.lease.timeout.s";
+
+    private static BrowserPool defaultPool = null;
+
+    private final int size;
+    private final int maxUses;
+    private final Duration leaseTimeout;
+    private final Supplier<WebDriver> factory;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Session> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger live = new AtomicInteger();
+    private final ExecutorService warmer;
+
+    public BrowserPool(int size, int warm, int maxUses, Duration leaseTimeout, Supplier<WebDriver> factory) {
+
+        this.size = size;
+        this.maxUses = maxUses;
+        this.leaseTimeout = leaseTimeout;
+        this.factory = factory;
+        this.permits = new Semaphore(size);
+        this.warmer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "browser-warmer");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.gauge("browser.pool.size", live::get);
+        Metrics.gauge("browser.pool.idle", idle::size);
+        Metrics.gauge("browser.pool.leased", () -> size - permits.availablePermits());
+        for( int i=0; i<Math.min(warm, size); i++ ){
+            warmer.execute(this::warmUp);
+        }
+    }
+
+    /**
+     * Pool shared by every command of this process. Its size defaults to the number of workers.
+     */
+    public static synchronized BrowserPool getDefault() {
+
+        if( defaultPool == null ){
+            int size = Integer.getInteger(SIZE_PROPERTY, Integer.getInteger("test-automation.workers", 1));
+            defaultPool = new BrowserPool(
+                size,
+                Integer.getInteger(WARM_PROPERTY, size),
+                Integer.getInteger(MAX_USES_PROPERTY, 20),
+                Duration.ofSeconds(Long.getLong(LEASE_TIMEOUT_PROPERTY, 300L)),
+                BrowserPool::newChromeDriver);
+            Runtime.getRuntime().addShutdownHook(new Thread(defaultPool::close, "browser-pool-shutdown"));
+        }
+        return defaultPool;
+    }
+
+    public static WebDriver newChromeDriver() {
+
+        ChromeOptions options = new ChromeOptions();
+        options.setHeadless(Boolean.FALSE);
+        options.addArguments("--remote-allow-origins=*", "--window-size=2560,1440", "--no-sandbox", "--disable-dev-shm-usage");
+        try{
+            return new ChromeDriver(options);
+        }catch(Exception e){
+            logger.error("Error starting the browser. Either the chromedriver is not available in the path or the version is different from your browser version. Msg: "+e.getMessage() );
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a free session. The lease must be closed to give the session back.
+     */
+    public Lease lease() throws InterruptedException, TimeoutException {
+
+        long start = System.nanoTime();
+        if( !permits.tryAcquire(leaseTimeout.toMillis(), TimeUnit.MILLISECONDS) ){
+            throw new TimeoutException("No browser session available after "+leaseTimeout.getSeconds()+" seconds");
+        }
+        try{
+            Session session = null;
+            while( session == null ){
+                session = idle.pollFirst();
+                if( session != null && !session.isAlive() ){
+                    logger.info("Discarding browser session that stopped responding");
+                    Metrics.increment("browser.pool.crashed");
+                    quit(session);
+                    session = null;
+                }else if( session == null ){
+                    if( reserve() ){
+                        session = create();
+                    }else{
+                        //every slot is taken by a session being warmed up, wait for it
+                        Thread.sleep(100);
+                    }
+                }
+            }
+            session.uses++;
+            Metrics.record("browser.pool.lease.wait", System.nanoTime() - start);
+            return new Lease(session);
+        }catch(RuntimeException | InterruptedException e){
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Session session) {
+
+        try{
+            if( session.uses >= maxUses || !(session.driver instanceof ChromiumDriver) ){
+                logger.info(session.uses >= maxUses
+                    ? "Recycling browser session after "+session.uses+" uses"
+                    : "Recycling browser session, only Chromium sessions can be reset");
+                Metrics.increment("browser.pool.recycled");
+                quit(session);
+                warmer.execute(this::warmUp);
+            }else if( reset((ChromiumDriver)session.driver) ){
+                idle.offerFirst(session);
+            }else{
+                Metrics.increment("browser.pool.crashed");
+                quit(session);
+                warmer.execute(this::warmUp);
+            }
+        }finally{
+            permits.release();
+        }
+    }
+
+    /**
+     * Clears the state left by the previous test: tabs, cookies and the storage of every origin the tabs visited
+     * (local storage, IndexedDB, cache storage, service workers). Then leaves a blank tab.
+     * @return false when the session is not usable anymore
+     */
+    private boolean reset(ChromiumDriver driver) {
+
+        try{
+            Set<String> origins = new LinkedHashSet<>();
+            List<String> handles = new ArrayList<>(driver.getWindowHandles());
+            for( String handle : handles ){
+                driver.switchTo().window(handle);
+                addOrigin(origins, driver.getCurrentUrl());
+                Map<String, Object> history = driver.executeCdpCommand("Page.getNavigationHistory", Map.of());
+                if( history.get("entries") instanceof List<?> entries ){
+                    for( Object entry : entries ){
+                        if( entry instanceof Map<?,?> e && e.get("url") instanceof String url ){
+                            addOrigin(origins, url);
+                        }
+                    }
+                }
+            }
+            //a new tab has no session storage and no history
+            driver.switchTo().newWindow(WindowType.TAB);
+            String blank = driver.getWindowHandle();
+            for( String handle : handles ){
+                driver.switchTo().window(handle).close();
+            }
+            driver.switchTo().window(blank);
+            for( String origin : origins ){
+                driver.executeCdpCommand("Storage.clearDataForOrigin", Map.of("origin", origin, "storageTypes", "all"));
+            }
+            //cookies of every domain, deleteAllCookies only covers the current one
+            driver.executeCdpCommand("Network.clearBrowserCookies", Map.of());
+            return true;
+        }catch(Exception e){
+            logger.info("Unable to reset browser session. Msg: "+e.getMessage());
+            return false;
+        }
+    }
+
+    private static void addOrigin(Set<String> origins, String url) {
+
+        try{
+            URI uri = URI.create(url);
+            if( ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) && uri.getHost() != null ){
+                origins.add(uri.getScheme()+"://"+uri.getHost()+(uri.getPort() == -1 ? "" : ":"+uri.getPort()));
+            }
+        }catch(IllegalArgumentException e){
+            //not a URL, nothing stored for it
+        }
+    }
+
+    private void warmUp() {
+
+        if( idle.size() >= permits.availablePermits() || !reserve() ){
+            return;
+        }
+        try{
+            idle.offerLast(create());
+        }catch(Exception e){
+            logger.error("Unable to warm up browser session. Msg: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Takes one of the slots for a live session.
+     * @return false when the pool already has as many sessions as it can hold
+     */
+    private boolean reserve() {
+
+        int current;
+        do{
+            current = live.get();
+            if( current >= size ){
+                return false;
+            }
+        }while( !live.compareAndSet(current, current+1) );
+        return true;
+    }
+
+    /**
+     * Launches a browser for a slot taken with {@link #reserve()}.
+     */
+    private Session create() {
+
+        try{
+            WebDriver driver = factory.get();
+            PageReadiness.install(driver);
+            Metrics.increment("browser.pool.created");
+            return new Session(driver);
+        }catch(RuntimeException e){
+            live.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void quit(Session session) {
+
+        live.decrementAndGet();
+        try{
+            session.driver.quit();
+        }catch(Exception e){
+            logger.info("Error closing browser session. Msg: "+e.getMessage());
+        }
+    }
+
+    public void close() {
+
+        warmer.shutdownNow();
+        Session session;
+        while( (session = idle.pollFirst()) != null ){
+            quit(session);
+        }
+    }
+
+    private static class Session {
+
+        private final WebDriver driver;
+        private int uses = 0;
+
+        private Session(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        private boolean isAlive() {
+            try{
+                driver.getWindowHandle();
+                return true;
+            }catch(Exception e){
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A session leased to a test. Closing it more than once has no effect.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final Session session;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(Session session) {
+            this.session = session;
+        }
+
+        public WebDriver driver() {
+            return session.driver;
+        }
+
+        @Override
+        public void close() {
+            if( closed.compareAndSet(false, true) ){
+                release(session);
+            }
+        }
+    }
+}
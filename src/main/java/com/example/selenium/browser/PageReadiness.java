@@ -0,0 +1,95 @@
+package com.example.selenium.browser;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Waits for a page to settle instead of sleeping for a fixed time. A page is ready when the document is complete,
+ * no fetch/XHR request is in flight and neither the DOM nor the network changed for a quiet period.
+ *
+ * The tracker is registered with CDP (Page.addScriptToEvaluateOnNewDocument) so it sees the requests made while
+ * the page loads. Drivers without CDP get it injected when {@link #await(WebDriver, Duration, Duration)} is called.
+ */
+public final class PageReadiness {
+
+    private static final Logger logger = LogManager.getLogger(PageReadiness.class);
+
+    private static final Set<WebDriver> installed = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final Duration SCRIPT_TIMEOUT = Duration.ofMinutes(2);
+
+    private PageReadiness() {
+    }
+
+    /**
+     * Registers the tracker for every document the browser loads from now on.
+     */
+    public static void install(WebDriver driver) {
+
+        if( installed.contains(driver) ){
+            return;
+        }
+        driver.manage().timeouts().scriptTimeout(SCRIPT_TIMEOUT);
+        if( driver instanceof ChromiumDriver chromium ){
+            try{
+                chromium.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument", Map.of("source", Scripts.load("page-readiness.js")));
+            }catch(WebDriverException e){
+                logger.info("Unable to register the readiness tracker with CDP. It will be injected on demand. Msg: "+e.getMessage());
+            }
+        }
+        installed.add(driver);
+    }
+
+    /**
+     * Waits until the page has been quiet for quietPeriod, or until timeout expires.
+     * @return true when the page settled, false when the timeout expired first
+     */
+    public static boolean await(WebDriver driver, Duration quietPeriod, Duration timeout) {
+
+        install(driver);
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        boolean settled = false;
+        JavascriptExecutor js = (JavascriptExecutor)driver;
+        while( System.nanoTime() < deadline ){
+            long remainingMillis = Math.max(1, (deadline - System.nanoTime()) / 1_000_000);
+            try{
+                //the tracker is a no-op when it was installed with the document
+                Object result = js.executeAsyncScript(Scripts.load("page-readiness.js")+"\n"+Scripts.load("await-quiet.js"), quietPeriod.toMillis(), remainingMillis);
+                settled = Boolean.TRUE.equals(result);
+                break;
+            }catch(WebDriverException e){
+                //the document was replaced while waiting (e.g. a click navigated), wait on the new one
+                logger.debug("Page changed while waiting for it to settle. Msg: "+e.getMessage());
+                sleep(Math.min(quietPeriod.toMillis(), remainingMillis));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Metrics.record("page.readiness.wait", elapsed);
+        if( !settled ){
+            Metrics.increment("page.readiness.timeout");
+        }
+        logger.info(String.format("Page %s after %d ms", settled ? "settled" : "did not settle", elapsed / 1_000_000));
+        return settled;
+    }
+
+    private static void sleep(long millis) {
+        try{
+            Thread.sleep(millis);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the page", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.selenium.browser;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Checks the expected outcome of a planned step without asking the model:
+ * - element: an element with the given id is displayed
+ * - text: the text is visible in the page, ignoring case and whitespace
+ * - url: the current URL matches the regular expression
+ *
+ * Metrics: page.postcondition timer, page.postcondition.failed counter.
+ */
+public final class PostCondition {
+
+    private static final Logger logger = LogManager.getLogger(PostCondition.class);
+
+    private PostCondition() {
+    }
+
+    public static boolean check(WebDriver driver, String type, String value) {
+
+        long start = System.nanoTime();
+        boolean met;
+        switch( type ){
+            case "url":
+                try{
+                    met = Pattern.compile(value).matcher(driver.getCurrentUrl()).find();
+                }catch(PatternSyntaxException e){
+                    logger.info("Invalid URL pattern in post-condition: "+value);
+                    met = false;
+                }
+                break;
+            case "element", "text":
+                met = Boolean.TRUE.equals(((JavascriptExecutor)driver).executeScript(Scripts.load("postcondition.js"), type, value));
+                break;
+            default:
+                logger.info("Unknown post-condition type: "+type);
+                met = false;
+        }
+        Metrics.record("page.postcondition", System.nanoTime() - start);
+        if( !met ){
+            Metrics.increment("page.postcondition.failed");
+        }
+        return met;
+    }
+}
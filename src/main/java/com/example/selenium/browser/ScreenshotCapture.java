@@ -0,0 +1,206 @@
+package com.example.selenium.browser;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Captures screenshots into memory. Chromium browsers are asked through CDP (Page.captureScreenshot), which crops,
+ * scales and encodes the image in the browser. Other browsers return a PNG that is cropped, scaled and encoded here.
+ * The same bytes go to the model and to the artifacts of the test.
+ *
+ * Options:
+ * - format: PNG, JPEG or WEBP. WEBP needs CDP, the other browsers fall back to JPEG
+ * - quality: 0 to 100, for JPEG and WEBP
+ * - scale: factor applied to the size of the image, below 1 to downscale
+ * - clip: region of the page in CSS pixels, the whole viewport when missing. Without CDP, region of the viewport
+ *
+ * Metrics: page.screenshot timer, page.screenshot.bytes counter.
+ */
+public class ScreenshotCapture {
+
+    private static final Logger logger = LogManager.getLogger(ScreenshotCapture.class);
+
+    public static final String FORMAT_PROPERTY = "test-automation.screenshot.format";
+    public static final String QUALITY_PROPERTY = "test-automation.screenshot.quality";
+    public static final String SCALE_PROPERTY = "test-automation.screenshot.scale";
+    public static final String CLIP_PROPERTY = "test-automation.screenshot.clip";
+
+    public enum Format {
+        PNG, JPEG, WEBP;
+
+        /**
+         * Name used by CDP, file extensions and media types.
+         */
+        public String id() {
+            return name().toLowerCase();
+        }
+    }
+
+    public record Clip(double x, double y, double width, double height) {
+
+        /**
+         * From "x,y,width,height".
+         */
+        public static Clip parse(String value) {
+
+            String[] parts = value.split(",");
+            if( parts.length != 4 ){
+                throw new IllegalArgumentException("Clip must be x,y,width,height: "+value);
+            }
+            return new Clip(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+        }
+    }
+
+    public record Screenshot(byte[] data, Format format) {
+    }
+
+    private final Format format;
+    private final int quality;
+    private final double scale;
+    private final Clip clip;
+
+    /**
+     * @param clip region of the page, or null for the viewport
+     */
+    public ScreenshotCapture(Format format, int quality, double scale, Clip clip) {
+        this.format = format;
+        this.quality = quality;
+        this.scale = scale;
+        this.clip = clip;
+    }
+
+    public static ScreenshotCapture fromSystemProperties() {
+
+        String clip = System.getProperty(CLIP_PROPERTY);
+        return new ScreenshotCapture(
+            Format.valueOf(System.getProperty(FORMAT_PROPERTY, Format.PNG.name()).toUpperCase()),
+            Integer.getInteger(QUALITY_PROPERTY, 80),
+            Double.parseDouble(System.getProperty(SCALE_PROPERTY, "1")),
+            clip == null || clip.isBlank() ? null : Clip.parse(clip));
+    }
+
+    public Screenshot capture(WebDriver driver) {
+
+        long start = System.nanoTime();
+        Screenshot screenshot = null;
+        if( driver instanceof ChromiumDriver chromium ){
+            try{
+                screenshot = cdp(chromium);
+            }catch(Exception e){
+                logger.info("Unable to capture screenshot through CDP, using WebDriver. Msg: "+e.getMessage());
+            }
+        }
+        if( screenshot == null ){
+            screenshot = transform(((TakesScreenshot)driver).getScreenshotAs(OutputType.BYTES), format, quality, scale, clip);
+        }
+        Metrics.record("page.screenshot", System.nanoTime() - start);
+        Metrics.add("page.screenshot.bytes", screenshot.data().length);
+        return screenshot;
+    }
+
+    private Screenshot cdp(ChromiumDriver chromium) {
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("format", format.id());
+        if( format != Format.PNG ){
+            parameters.put("quality", quality);
+        }
+        if( clip != null || scale != 1 ){
+            Clip region = clip;
+            if( region == null ){
+                List<?> viewport = (List<?>)((JavascriptExecutor)chromium).executeScript(
+                    "return [window.scrollX, window.scrollY, window.innerWidth, window.innerHeight];");
+                region = new Clip(number(viewport.get(0)), number(viewport.get(1)), number(viewport.get(2)), number(viewport.get(3)));
+            }
+            parameters.put("clip", Map.of(
+                "x", region.x(),
+                "y", region.y(),
+                "width", region.width(),
+                "height", region.height(),
+                "scale", scale));
+        }
+        Map<String, Object> result = chromium.executeCdpCommand("Page.captureScreenshot", parameters);
+        return new Screenshot(Base64.getDecoder().decode((String)result.get("data")), format);
+    }
+
+    private static double number(Object value) {
+        return ((Number)value).doubleValue();
+    }
+
+    /**
+     * Crops, scales and encodes a PNG screenshot. Returned as is when there is nothing to change.
+     */
+    static Screenshot transform(byte[] png, Format format, int quality, double scale, Clip clip) {
+
+        if( format == Format.PNG && scale == 1 && clip == null ){
+            return new Screenshot(png, Format.PNG);
+        }
+        try{
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            if( clip != null ){
+                int x = Math.min(image.getWidth() - 1, Math.max(0, (int)clip.x()));
+                int y = Math.min(image.getHeight() - 1, Math.max(0, (int)clip.y()));
+                image = image.getSubimage(x, y,
+                    Math.max(1, Math.min((int)clip.width(), image.getWidth() - x)),
+                    Math.max(1, Math.min((int)clip.height(), image.getHeight() - y)));
+            }
+            //JPEG has no alpha channel
+            boolean jpeg = format != Format.PNG;
+            int width = Math.max(1, (int)Math.round(image.getWidth() * scale));
+            int height = Math.max(1, (int)Math.round(image.getHeight() * scale));
+            BufferedImage target = new BufferedImage(width, height, jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = target.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+            g.dispose();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(png.length);
+            if( !jpeg ){
+                ImageIO.write(target, "png", out);
+                return new Screenshot(out.toByteArray(), Format.PNG);
+            }
+            if( format == Format.WEBP ){
+                logger.debug("WEBP screenshots need CDP, encoding as JPEG");
+            }
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.min(100, Math.max(0, quality)) / 100f);
+            try( MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out) ){
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(target, null, null), param);
+            }finally{
+                writer.dispose();
+            }
+            return new Screenshot(out.toByteArray(), Format.JPEG);
+        }catch(IOException e){
+            throw new UncheckedIOException("Could not transform screenshot. Msg: "+e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.selenium.browser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JavaScript injected in the pages under test. Scripts live in src/main/resources/js and are read once.
+ */
+public final class Scripts {
+
+    private static final Map<String, String> cache = new ConcurrentHashMap<>();
+
+    private Scripts() {
+    }
+
+    public static String load(String name) {
+
+        return cache.computeIfAbsent(name, key -> {
+            try( InputStream in = Scripts.class.getResourceAsStream("/js/"+key) ){
+                if( in == null ){
+                    throw new IllegalArgumentException("Script not found: "+key);
+                }
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }catch(IOException e){
+                throw new UncheckedIOException("Could not read script "+key, e);
+            }
+        });
+    }
+}
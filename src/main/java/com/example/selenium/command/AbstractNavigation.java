@@ -1,40 +1,47 @@
 package com.example.selenium.command;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attribute;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.select.Elements;
-import org.openqa.selenium.By;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.Keys;
-import org.openqa.selenium.OutputType;
-import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.support.ui.FluentWait;
 import org.openqa.selenium.support.ui.Select;
 
 import com.example.selenium.AppInfra;
 import com.example.selenium.bedrock.BedrockClient;
+import com.example.selenium.bedrock.BedrockClient.BedrockClientConfig;
+import com.example.selenium.bedrock.BedrockService;
+import com.example.selenium.bedrock.ModelRouter;
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.bedrock.model.Prompt;
+import com.example.selenium.browser.AccessibilityOutline;
+import com.example.selenium.browser.BrowserPool;
+import com.example.selenium.browser.PageReadiness;
+import com.example.selenium.browser.PostCondition;
+import com.example.selenium.browser.ScreenshotCapture;
+import com.example.selenium.browser.ScreenshotCapture.Screenshot;
+import com.example.selenium.browser.Scripts;
+import com.example.selenium.html.DomDiff;
+import com.example.selenium.html.HtmlCleaner;
 import com.example.selenium.html.HtmlElement;
-import com.googlecode.htmlcompressor.compressor.HtmlCompressor;
+import com.example.selenium.html.PagePruner;
+import com.example.selenium.metrics.Metrics;
 
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -46,9 +53,20 @@ import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
 public abstract class AbstractNavigation implements Command {
     
     private static final Logger logger = LogManager.getLogger(AbstractNavigation.class);
-    private HtmlCompressor compressor = new HtmlCompressor();
-    protected BedrockClient service = null;
+    public static final String SCREENSHOTS_DISK_PROPERTY = "test-automation.screenshots.disk";
+    public static final String SCREENSHOTS_DIR_PROPERTY = "test-automation.screenshots.dir";
+    private static final boolean SCREENSHOTS_ON_DISK = Boolean.parseBoolean(System.getProperty(SCREENSHOTS_DISK_PROPERTY, "true"));
+    private static final String SCREENSHOTS_DIR = System.getProperty(SCREENSHOTS_DIR_PROPERTY, "./screenshots");
+    private final HtmlCleaner cleaner = new HtmlCleaner();
+    private final DomDiff domDiff = DomDiff.fromSystemProperties();
+    private final PagePruner pruner = PagePruner.fromSystemProperties();
+    private final PlanStore plans = PlanStore.fromSystemProperties();
+    private final ModelRouter router = ModelRouter.fromSystemProperties();
+    private final ScreenshotCapture capture = ScreenshotCapture.fromSystemProperties();
+    protected BedrockService service = null;
     protected WebDriver browser = null;
+    //shared by every command of a chain, the first tearDown gives the browser back to the pool
+    protected BrowserPool.Lease lease = null;
     protected final CommandParams params;
     protected String s3Bucket = null;
     //generate ramdom 6 character string
@@ -59,7 +77,7 @@ public abstract class AbstractNavigation implements Command {
     public AbstractNavigation(CommandParams params) {
         logger.info("Executing test case: "+params.getTestCase());
         try{
-        	service = new BedrockClient();
+        	service = BedrockClient.service(BedrockClientConfig.builder().build());
         }catch(Exception e){
         	e.printStackTrace();
             throw e;
@@ -87,77 +105,168 @@ public abstract class AbstractNavigation implements Command {
         String testCase = params.getTestCase();    
 
         if( browser == null ){
-            // Open the web browser and navigate to the app's URL
-            ChromeOptions options = new ChromeOptions();
-            if( !params.headless() ){
-                options.setHeadless(params.headless());
-            }
-            options.setHeadless(Boolean.FALSE);
-            options.addArguments("--remote-allow-origins=*", "--window-size=2560,1440", "--no-sandbox", "--disable-dev-shm-usage");
-            try{
-                browser = new ChromeDriver(options);
-            }catch(Exception e){
-                logger.error("Error starting the browser. Either the chromedriver is not available in the path or the version is different from your browser version. Msg: "+e.getMessage() );
-            }
-
+            // Lease a warm browser from the pool and navigate to the app's URL
+            lease = BrowserPool.getDefault().lease();
+            browser = lease.driver();
             browser.get(url);
-            Thread.sleep(loadWaitTime);
         }
         String html = null;
         String htmlCompressed   =   null;
         final List<HtmlElement> elements = new ArrayList<>();
+        //steps of the last successful run, replayed while the page matches them
+        final List<PlanStore.Step> plan = plans == null ? List.of() : plans.find(url, testCase);
+        final List<PlanStore.Step> trace = new ArrayList<>();
+        int replayed = 0;
+        boolean replaying = !plan.isEmpty();
+        //steps the model planned ahead, and what the last of them should have led to
+        final Deque<JSONObject> planned = new ArrayDeque<>();
+        JSONObject expected = null;
+        //a step that repeats the previous one on the same page made no progress, the next one goes to the strong model
+        String previousFingerprint = null;
+        JSONArray previousActions = null;
+        boolean escalate = false;
         // Start testing
         for (int i = 0; i < interactions; i++) {
             logger.info("Available interactions: "+(interactions-i));
             try{
                 Integer step = i+1;  
 
-                FluentWait<WebDriver> wait = new FluentWait<>(browser);
-                wait.withTimeout(Duration.ofMillis(loadWaitTime));
-                wait.pollingEvery(Duration.ofMillis(250));
-                wait.until(browser-> ((JavascriptExecutor)browser).executeScript("return document.readyState").toString().equals("complete"));
+                //wait for the page to settle after loading or after the previous step
+                PageReadiness.await(browser, Duration.ofMillis(delay), Duration.ofMillis(loadWaitTime));
         
    
-                elements.addAll(getHtmlElements(browser, params.setIds()));
-                if( params.setIds() ){
-                    setIds(browser, elements);
+                //the outline names elements by id, every element it lists needs one
+                elements.addAll(getHtmlElements(browser, params.setIds() || params.getPageRepresentation() == PageRepresentation.ACCESSIBILITY_TREE));
+                String fingerprint = plans == null && router == null ? null : PlanStore.fingerprint(browser.getCurrentUrl(), elements);
+                if( expected != null ){
+                    if( !PostCondition.check(browser, expected.optString("type"), expected.optString("value")) ){
+                        logger.info("Post-condition "+expected+" not met, asking the model");
+                        planned.clear();
+                    }
+                    expected = null;
                 }
-                html = cleanHtml(browser.getPageSource());
-                htmlCompressed = compressor.compress(html);
-                // logger.info("HTML: "+html);
-                logger.info("HTML length: "+html.length());
-                logger.info("HTML COMPRESSED: "+htmlCompressed.length());
-                String prompt = String.format( getPrompt(), htmlCompressed, testCase, pastActions, interactions-i, elements);
-
-                //logger.info("Source:\n "+html);
-                logger.info("Prompt Length:"+prompt.length());
+
+                JSONArray actions;
+                String explanation;
+                if( replaying && replayed < plan.size() && plan.get(replayed).fingerprint().equals(fingerprint) ){
+                    actions = plan.get(replayed++).actions();
+                    explanation = "Replaying step "+replayed+" of "+plan.size()+" of the saved plan";
+                    Metrics.increment("plan.replayed.steps");
+                    //the model does not see replayed pages, its next page is sent whole
+                    domDiff.reset();
+                }else if( !planned.isEmpty() ){
+                    JSONObject next = planned.poll();
+                    actions = next.getJSONArray("actions");
+                    explanation = next.optString("explanation", "Next planned step");
+                    expected = next.optJSONObject("expect");
+                    Metrics.increment("plan.steps.ahead");
+                    domDiff.reset();
+                }else{
+                    if( replaying && replayed < plan.size() ){
+                        logger.info("Page diverged from the saved plan at step "+(replayed+1)+", asking the model");
+                        Metrics.increment("plan.diverged");
+                    }
+                    //after the plan, or once the page diverged, the model takes over
+                    replaying = false;
+                    List<HtmlElement> shown;
+                    if( params.getPageRepresentation() == PageRepresentation.ACCESSIBILITY_TREE ){
+                        //the outline has the ids of the elements, a separate list would repeat them
+                        htmlCompressed = AccessibilityOutline.capture(browser, elements);
+                        shown = List.of();
+                        logger.info("OUTLINE LENGTH: "+htmlCompressed.length());
+                    }else{
+                        html = browser.getPageSource();
+                        htmlCompressed = cleaner.clean(html);
+                        int reservedTokens = PagePruner.estimateTokens(getInstructions()) + PagePruner.estimateTokens(getTestCasePrompt()) + PagePruner.estimateTokens(getStepPrompt())
+                            + PagePruner.estimateTokens(testCase) + PagePruner.estimateTokens(pastActions.toString());
+                        //compared before pruning, subtrees pruned on one step only are not changes of the page
+                        DomDiff.Changes changes = params.getPageRepresentation() == PageRepresentation.DIFF
+                            ? domDiff.compare(browser.getCurrentUrl(), cleaner, htmlCompressed.length(), pruner.tokenBudget() - reservedTokens)
+                            : null;
+                        //the earlier turns of the conversation are part of the prompt
+                        reservedTokens += domDiff.historyTokens();
+                        PagePruner.Result pruned = pruner.prune(cleaner, htmlCompressed, elements, testCase, reservedTokens);
+                        htmlCompressed = pruned.html();
+                        shown = pruned.elements();
+                        if( changes != null ){
+                            htmlCompressed = domDiff.describe(changes, htmlCompressed);
+                        }
+                        // logger.info("HTML: "+html);
+                        logger.info("HTML length: "+html.length());
+                        logger.info("HTML COMPRESSED: "+htmlCompressed.length());
+                    }
+                    Prompt prompt = new Prompt(
+                        List.of(params.planning() ? getInstructions() + getPlanningInstructions() : getInstructions(), String.format(getTestCasePrompt(), testCase)),
+                        domDiff.history(),
+                        String.format(getStepPrompt(), htmlCompressed, pastActions, interactions-i, shown),
+                        params.planning());
+
+                    //logger.info("Source:\n "+html);
+                    logger.info("Prompt Length:"+prompt.length());
                 
-                String response = null;
-                try{
-                    screenshot();
-                    // response = service.invokeWithImage(prompt, screenshot());
-                    response = service.invoke(prompt);
-                }catch(Exception e){
-                    logger.error("Error invoking the model. Msg: "+e.getMessage());
-                    elements.clear();
-                    continue;
+                    String response = null;
+                    try{
+                        keepScreenshot();
+                        // response = service.invokeWithImage(prompt, image(screenshot()));
+                        if( router != null ){
+                            response = router.invoke(prompt, r -> rejection(r, elements), escalate);
+                            escalate = false;
+                        }else{
+                            response = service.invoke(prompt);
+                        }
+                    }catch(Exception e){
+                        logger.error("Error invoking the model. Msg: "+e.getMessage());
+                        //the model did not see this page, next step describes it whole
+                        domDiff.reset();
+                        elements.clear();
+                        continue;
                 
+                    }
+                    JSONObject text = getResponseJSON(response);
+                    if( params.getPageRepresentation() == PageRepresentation.DIFF ){
+                        //the next changes are relative to this page, the next step repeats the elements and the actions
+                        domDiff.answered(String.format(getStepPrompt(), htmlCompressed, List.of(), interactions-i, List.of()), text.toString());
+                    }
+
+                    if(text.has("status")){
+                        logger.info(String.format("Test finished. Status: %s. Explanation: %s", text.getString("status"), text.getString("explanation")));   
+                        //take a screenshot
+                        keepScreenshot();
+                        this.success    =   text.getString("status").toLowerCase().indexOf("failure")!=-1 ? Boolean.FALSE : Boolean.TRUE;
+                        if( plans != null ){
+                            if( this.success ){
+                                plans.save(url, testCase, trace);
+                            }else if( replayed > 0 ){
+                                //the plan led to a failure, learn it again on the next run
+                                plans.discard(url, testCase);
+                            }
+                        }
+                        break;
+                    }
+
+                    explanation = text.getString("explanation");
+                    if( params.planning() && text.has("steps") ){
+                        //run the first step now, the others while their post-conditions hold
+                        JSONArray steps = text.getJSONArray("steps");
+                        for( int s=1; s<steps.length(); s++ ){
+                            planned.add(steps.getJSONObject(s));
+                        }
+                        actions = steps.getJSONObject(0).getJSONArray("actions");
+                        expected = steps.getJSONObject(0).optJSONObject("expect");
+                        logger.info("Model planned "+steps.length()+" steps");
+                    }else{
+                        actions = text.getJSONArray("actions");
+                    }
                 }
-                JSONObject text = getResponseJSON(response);
-
-                if(text.has("status")){
-                    logger.info(String.format("Test finished. Status: %s. Explanation: %s", text.getString("status"), text.getString("explanation")));   
-                    //take a screenshot
-                    screenshot();
-                    this.success    =   text.getString("status").toLowerCase().indexOf("failure")!=-1 ? Boolean.FALSE : Boolean.TRUE;
-                    break;
+                if( plans != null ){
+                    trace.add(new PlanStore.Step(fingerprint, actions));
+                }
+                if( router != null ){
+                    escalate = fingerprint.equals(previousFingerprint) && actions.similar(previousActions);
+                    previousFingerprint = fingerprint;
+                    previousActions = actions;
                 }
 
-                JSONArray actions = text.getJSONArray("actions");
-                String explanation = text.getString("explanation");
-
-                //add step information inside the JSONObject text
-                text.put("step", step);
                 logger.info(String.format("Step #%s. Explanation: %s", step, explanation));
                 logger.info(String.format("Step actions: %s", actions));
                 List<HtmlElement> click = inputData(elements, actions);
@@ -176,7 +285,6 @@ public abstract class AbstractNavigation implements Command {
                 //new Actions(browser).moveToElement(click.getElement()).click().perform();
                 
                 pastActions.add(String.format("{\"step\":%s, \"actions\": %s}", step, actions));
-                Thread.sleep(delay);
 
             }catch(Exception e){
                 logger.error("Clicked on something that didn't work (possibly an element that is not visible or not clickable). Will continue with the next action....");
@@ -208,7 +316,7 @@ public abstract class AbstractNavigation implements Command {
                         }
                         // new Actions(browser).sendKeys(Keys.ENTER).perform();
                         try{
-                            screenshot();}catch(Exception e){e.printStackTrace();}
+                            keepScreenshot();}catch(Exception e){e.printStackTrace();}
                     }else{
 
                         ((JavascriptExecutor)browser).executeScript("arguments[0].focus();", element.get().getElement());
@@ -227,218 +335,20 @@ public abstract class AbstractNavigation implements Command {
         return click;
     }
 
-    protected static String cleanHtml(String htmlString) {
-
-        final Document doc = Jsoup.parse(htmlString);
-
-        // Remove all script and style elements
-        Elements scripts = doc.select("script, style");
-        for (Element script : scripts) {
-            script.remove();
-        }
-        //remove script tags inside the body
-        Document body = Jsoup.parseBodyFragment(doc.select("body").html());
-        body.select("script").remove();
-
-        removeComments(body);
-
-        //remove script and head from inside the iframe
-        Elements iframes = doc.select("iframe");
-
-        // Iterate through the <iframe> elements
-        for (Element iframe : iframes) {
-
-            if(!iframe.attributes().hasKey("srcdoc")) continue;
-            // Parse the content of the <iframe> as a new Document
-            Document iframeDoc = Jsoup.parse(iframe.attributes().get("srcdoc"));
-        
-            // Select all <script> elements within the <head> section of the <iframe>
-            scripts = iframeDoc.select("script");
-            //remove script tags inside the body
-            Document bodyIFrameDoc = Jsoup.parseBodyFragment(iframeDoc.select("body").html());
-            bodyIFrameDoc.select("script").remove();
-        
-            // Remove the selected <script> elements
-            scripts.remove();
-        
-            // Update the <iframe> content with the modified HTML
-            iframe.attributes().put("srcdoc", iframeDoc.outerHtml());
-        }        
-
-        // Remove the div with id 'coverage'
-        Element coverageDiv = doc.selectFirst("#coverage");
-        if (coverageDiv != null) {
-            coverageDiv.remove();
-        }
-
-        // Remove class from divs
-        Elements divs = doc.select("div");
-        divs.stream().forEach(div-> div.removeAttr("class"));
-
-        // Remove class from span
-        Elements spans = doc.select("span");
-        spans.stream().forEach(span-> span.removeAttr("class"));
-
-        // Remove class from ul
-        Elements uls = doc.select("ul");
-        uls.stream().forEach(ul-> ul.removeAttr("class"));
-
-        //remove the attributes data- attributes from a, ul, div, span, input
-        Elements elementsWithDataAttrs = doc.select("[^data-]");
-        elementsWithDataAttrs.forEach(elem->{
-           
-           List<Attribute> attributes = elem.attributes().asList();
-           attributes.stream().filter(attr->attr.getKey().indexOf("data-") != -1).forEach(attr->elem.removeAttr(attr.getKey()));
-        });
-
-        //if href starts with / we will on try to remove the extra info and update href with information inside the first / and the second /
-        Elements links = doc.select("a");
-        links.stream().forEach(link->{
-
-            String href = link.attr("href");
-            if(href.startsWith("/")){
-                String[] parts = href.split("/");
-                if(parts.length > 2){
-                    link.attr("href", "/"+parts[1]+"/");
-                }
-            }else if(href.startsWith("https")){
-                String[] parts = href.split("/");
-                if(parts.length > 3){
-                    link.attr("href", "https://"+parts[2]);
-                }
-                if( parts.length == 3){
-                    if(parts[2].indexOf("?")!=-1){
-                        link.attr("href", "https://"+parts[2].substring(0, parts[2].indexOf("?")));
-                    }else{
-                        link.attr("href", "https://"+parts[2]);
-                    }
-                }
-            }
-        });
-
-        // Remove the alt attribute from images
-        Elements images = doc.select("img");
-        images.stream().forEach(image->image.removeAttr("alt"));
-        images.stream().forEach(image->image.removeAttr("srcset"));        
-        
-        return doc.html().replaceAll("\\s+", " ");
-    }
-
-    private static void removeComments(Node node) {
-        for (int i = 0; i < node.childNodeSize();) {
-            Node child = node.childNode(i);
-            if (child.nodeName().equals("#comment"))
-                child.remove();
-            else {
-                removeComments(child);
-                i++;
-            }
-        }
-    }
-
-    protected void setIds(WebDriver browser, List<HtmlElement> elements){
-
-        elements.stream().filter(elem -> elem.isIdGenerated()).forEach(elem -> {
-                
-            ((JavascriptExecutor)browser).executeScript(String.format("arguments[0].id='%s';", elem.getId()), elem.getElement());
-         } );  
-    }
-
+    /**
+     * Collects the visible and enabled elements the model can interact with. The page is walked once by an injected
+     * script that returns the element handles and, when allElements is set, assigns an id to the elements without one.
+     */
     protected List<HtmlElement> getHtmlElements(WebDriver browser, final Boolean allElements){
 
-        List<HtmlElement> buttons   =   browser.findElements(By.xpath("//button"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("clickable")
-                .element(e)
-                .build())
-            .toList();
-
-        List<HtmlElement> inputs = browser.findElements(By.tagName("input"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("input")
-                .element(e)
-                .build())
-            .toList();
-
-        List<HtmlElement> anchors = browser.findElements(By.tagName("a"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("clickable")
-                .element(e)
-                .build())
-            .toList();       
-            
-        List<HtmlElement> textarea = browser.findElements(By.tagName("textarea"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("input")
-                .element(e)
-                .build())
-            .toList();           
-
-        List<HtmlElement> select = browser.findElements(By.tagName("select"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("input")
-                .element(e)
-                .build())
-            .toList();              
-
-        List<HtmlElement> clickable = browser.findElements(By.xpath("//*[not(self::button or self::a or self::input)][@onclick or contains(@onclick, 'click')]"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("clickable")
-                .element(e)
-                .build())
-            .toList(); 
-
-        List<HtmlElement> span = browser.findElements(By.tagName("span"))
-            .stream()
-            .filter(e->e.isDisplayed())
-            .filter(e->e.isEnabled())
-            .filter(e->  allElements || (e.getAttribute("id")!=null && !"".equals(e.getAttribute("id"))))
-            .map(e-> HtmlElement.builder()
-                .id(e.getAttribute("id"))
-                .type("clickable")
-                .element(e)
-                .build())
-            .toList(); 
-        
+        long start = System.nanoTime();
+        Object result = ((JavascriptExecutor)browser).executeScript(Scripts.load("harvest-elements.js"), allElements);
         final List<HtmlElement> elements = new ArrayList<>();
-        elements.addAll(buttons);
-        elements.addAll(inputs);
-        elements.addAll(anchors);
-        elements.addAll(textarea);
-        elements.addAll(select);
-        elements.addAll(clickable);
-        elements.addAll(span);
-
+        for( Object descriptor : (List<?>)result ){
+            elements.add(HtmlElement.fromHarvest((Map<?, ?>)descriptor));
+        }
+        Metrics.record("page.elements.harvest", System.nanoTime() - start);
+        logger.info("Interactive elements: "+elements.size());
         return elements;
     }
     
@@ -458,30 +368,58 @@ public abstract class AbstractNavigation implements Command {
             //get the first element of the array
             JSONObject firstElement = content.getJSONObject(0);
 
-            String rawResponse = firstElement.getString("text");
-
-            rawResponse = rawResponse.replaceAll("\n", "");
-            //extract JSON Object from the response
-            return new JSONObject( rawResponse.substring(rawResponse.indexOf("{"), rawResponse.lastIndexOf("}")+1));
+            //the stream handler already extracted the JSON object of the answer
+            return new JSONObject(firstElement.getString("text"));
         }catch(Exception e){
             logger.info("Unable to parse response: "+response);
             throw e;
         }
     }
     
-    protected File screenshot() throws IOException{
-        File screenshot = ((TakesScreenshot)browser).getScreenshotAs(OutputType.FILE);
-        String screenshotName = String.format("screenshot-%d.png", System.currentTimeMillis());
-        //test if directory exists otherwise create it
-        File directory = new File("./screenshots");
-        if (!directory.exists()) {
-            if(!directory.mkdirs()){
-                logger.info("Unable to create directory "+directory.getName());
+    /**
+     * Why an answer of the cheap model should go to the strong one, or null when it can be used.
+     */
+    private String rejection(String response, List<HtmlElement> elements){
+
+        try{
+            JSONObject answer = getResponseJSON(response);
+            if( answer.has("status") ){
+                return router.confirmsVerdicts() ? "verdict" : null;
+            }
+            JSONArray actions = answer.has("steps")
+                ? answer.getJSONArray("steps").getJSONObject(0).getJSONArray("actions")
+                : answer.getJSONArray("actions");
+            for( int i=0; i<actions.length(); i++ ){
+                String id = actions.getJSONObject(i).getString("id");
+                if( elements.stream().noneMatch(e -> e.getId().equals(id)) ){
+                    return "unknown-id";
+                }
             }
+            return null;
+        }catch(Exception e){
+            return "parse";
+        }
+    }
+
+    /**
+     * Captures the page into memory and keeps it as an artifact of the test: in the screenshots directory unless
+     * disk writes are disabled, and in S3 when the test uses it.
+     */
+    protected Screenshot screenshot() throws IOException{
+        Screenshot screenshot = capture.capture(browser);
+        String screenshotName = String.format("screenshot-%d.%s", System.currentTimeMillis(), screenshot.format().id());
+        if( SCREENSHOTS_ON_DISK ){
+            File directory = new File(SCREENSHOTS_DIR);
+            //test if directory exists otherwise create it
+            if (!directory.exists()) {
+                if(!directory.mkdirs()){
+                    logger.info("Unable to create directory "+directory.getName());
+                }
+            }
+            File screenshotFile = new File(directory, screenshotName);
+            Files.write(screenshotFile.toPath(), screenshot.data());
+            logger.info("Screenshot saved to "+screenshotFile.toString());
         }
-        File screenshotFile = new File("./screenshots/"+screenshotName);
-        Files.copy(screenshot.toPath(), screenshotFile.toPath());
-        logger.info("Screenshot saved to "+screenshotFile.toString());
 
         if(this.params.useS3()){
 
@@ -490,21 +428,41 @@ public abstract class AbstractNavigation implements Command {
                     .key(this.s3Prefix+"/"+screenshotName.toString())
                     .build();
 
-            s3Client.putObject(objectRequest, RequestBody.fromFile(screenshotFile));
+            //streamed from the capture, fromBytes would copy it
+            s3Client.putObject(objectRequest, RequestBody.fromInputStream(new ByteArrayInputStream(screenshot.data()), screenshot.data().length));
             logger.info("Screenshot saved to "+objectRequest.bucket()+"/"+objectRequest.key());
         }
-        return screenshotFile;
+        return screenshot;
     }
 
-    protected String getPrompt(){
+    /**
+     * Screenshot for the artifacts of the test only, skipped when nothing keeps it.
+     */
+    protected void keepScreenshot() throws IOException{
+        if( SCREENSHOTS_ON_DISK || params.useS3() ){
+            screenshot();
+        }
+    }
+
+    /**
+     * The screenshot as the image of a model request, without copying it.
+     */
+    protected static Base64Image image(Screenshot screenshot){
+        return new Base64Image(screenshot.data(), screenshot.format().id());
+    }
+
+    /**
+     * Instructions shared by every step of every test. Sent as the first system block, so it can be cached.
+     */
+    protected String getInstructions(){
        return """
-            Human: You are a professional tester testing web applications. You provide the output to the next step you need to execute to complete the test case. You can provide values to several inputs at once but one click action only on each step. Your actions must use actionable elements from the input. Provide the information to the next step according to the following instructions:
+            You are a professional tester testing web applications. You provide the output to the next step you need to execute to complete the test case. You can provide values to several inputs at once but one click action only on each step. Your actions must use actionable elements from the input. Provide the information to the next step according to the following instructions:
 
-            1- One input is the HTML source code of the web page. You will find it inside <code></code> tags.
+            1- One input is the HTML source code of the web page. You will find it inside <code></code> tags. When the page did not navigate since your previous step, <code></code> may only contain an outline of the page inside <skeleton></skeleton> tags followed by the elements that changed since your previous step, each inside <change path=""></change> tags, or <unchanged/> when nothing changed. The whole page and the changes since then are in the earlier messages of the conversation: apply the changes to that page in order. The list of elements to interact with is always complete. Some tests describe the page with an outline of its accessibility tree instead: one line per landmark, heading or interactive element with its role, "name", value, [state] and #id. Use those ids (without #) in your actions.
             2- Another input is the description of the test case you are executing. You will find it inside <testcase></testcase> tags
             3- Another input is the list of past actions that you have done so far. The first element is the first action of the test and last element is the previous action. You will find it inside <action></action> tags
             4- Another input is the number of available interactions. You will find it inside <available-interactions></available-interactions> tags.
-            5- Another input is the list of elements available for you to interact with. They are of type input or clickable. You will find it inside <interact></interact> tags
+            5- Another input is the list of elements available for you to interact with. They are of type input or clickable. You will find it inside <interact></interact> tags. It is empty when the page is described by an outline, the interactive elements of the outline are the ones available
             6- Your answer must always be JSON Object containing the next step or a test case completed response type. The next step object should contain a key "explanation" and a key "actions". Key "actions" is an array of JSON objects with keys "action", "id" and "value". Sometimes you need to click an element to visualize the input form. These are the examples:
             <examples>
             {"explanation":"Click on the button to submit the form","actions":[{"action":"click","id":"button1","value":"Submit"}, {"action":"input","id":"name-field","value":"John Doe"}, {"action":"input","id":"dropdown-menu","value":"Option 2"}, {"action":"input","id":"email-field","value":"johndoe@example.com"} ]}
@@ -518,9 +476,36 @@ public abstract class AbstractNavigation implements Command {
             </examples>
             8- For test to finish successfully, your explanation must contain evidence within the source HTML code that conditions to finish the test were met. Do not finish test successfully before finding evidence within the HTML code.
             9- You can use information from the image that was rendered using the HTML code provided within <code></code>
+                """;
+    }
 
-            <code>%s</code>
+    /**
+     * Added to the instructions in planning mode.
+     */
+    protected String getPlanningInstructions(){
+       return """
+            10- When you can tell the steps that follow, answer with several steps at once: a JSON object with a key "explanation" and a key "steps", an ordered array of objects with keys "explanation", "actions" (as in 6-, one click per step) and "expect". Key "expect" is how to tell the step worked, checked on the page after the step: {"type":"element","value":"<id of an element displayed after the step>"}, {"type":"text","value":"<text visible after the step>"} or {"type":"url","value":"<regular expression matching the URL after the step>"}. The steps run one after the other while their expectations hold, you get the page again when one does not or when all the steps ran. Later steps can only use ids you are sure of, like id attributes of the HTML code or elements that stay on the page. Here is an example:
+            <examples>
+            {"explanation":"Search for the ball and open the first result","steps":[{"explanation":"Search","actions":[{"action":"input","id":"search-box","value":"soccer ball"},{"action":"click","id":"search-submit","value":"Go"}],"expect":{"type":"url","value":"/s\\?k="}},{"explanation":"Open the first result","actions":[{"action":"click","id":"result-1","value":"FORZA Icon Soccer Ball"}],"expect":{"type":"text","value":"Add to cart"}}]}
+            </examples>
+                """;
+    }
+
+    /**
+     * The test case, the same on every step of a test. Sent as the second system block.
+     */
+    protected String getTestCasePrompt(){
+       return """
             <testcase>%s The test fails if you cannot complete the action after the number of available interactions gets to 0 or if you cannot complete the action for another reason.</testcase>
+                """;
+    }
+
+    /**
+     * What changes on every step: the page, past actions, interactions left and the elements to interact with.
+     */
+    protected String getStepPrompt(){
+       return """
+            <code>%s</code>
             <actions>%s</actions>
             <available-interactions>%s</available-interactions>
             <interact>%s</interact>.
@@ -532,6 +517,7 @@ public abstract class AbstractNavigation implements Command {
     @Override
     public Command andThen(Command c) throws Exception {
         
+        ((AbstractNavigation)c).lease = lease;
         ((AbstractNavigation)c).setDriver(browser);
         return c.execute();
     }
@@ -539,7 +525,9 @@ public abstract class AbstractNavigation implements Command {
     @Override
     public void tearDown() throws Exception {
         //release resources
-        if( browser!=null){
+        if( lease != null ){
+            lease.close();
+        }else if( browser!=null){
             browser.close();
             browser.quit();
         }
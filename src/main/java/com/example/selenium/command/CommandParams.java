@@ -3,13 +3,20 @@ package com.example.selenium.command;
 public class CommandParams {
     
     private String url  =   null;
+    //quiet period (DOM and network) after which a page is considered ready
     private Integer delay = 300;
     private Integer interactions = 100;
+    //upper bound on how long to wait for a page to become ready
     private Integer loadWaitTime = 5000;
     private String testCase = "";
     private Boolean setIds = Boolean.FALSE;
     private Boolean useS3 = Boolean.FALSE;
     private Boolean headless = Boolean.TRUE;
+    private PageRepresentation pageRepresentation = PageRepresentation.fromSystemProperties();
+    //the model may answer with several steps, each checked by a post-condition in the browser
+    private Boolean planning = Boolean.getBoolean(PLANNING_PROPERTY);
+
+    public static final String PLANNING_PROPERTY = "test-automation.planning";
 
     private CommandParams() {
     }
@@ -39,6 +46,12 @@ public class CommandParams {
     public Boolean headless() {
         return headless;
     }
+    public PageRepresentation getPageRepresentation() {
+        return pageRepresentation;
+    }
+    public Boolean planning() {
+        return planning;
+    }
 
     //builder pattern to create CommandParams using fluent language
     public static Builder builder() {
@@ -85,6 +98,14 @@ public class CommandParams {
             params.headless = headless;
             return this;
         }
+        public Builder pageRepresentation(PageRepresentation pageRepresentation) {
+            params.pageRepresentation = pageRepresentation;
+            return this;
+        }
+        public Builder planning(Boolean planning) {
+            params.planning = planning;
+            return this;
+        }
 
         public CommandParams build() {
             if(params.url == null){
@@ -95,6 +116,10 @@ public class CommandParams {
     }
 
     public static CommandParams getDefaultUseS3(final String url, final String testCase, final Boolean setIds){
+        return getDefaultUseS3(url, testCase, setIds, PageRepresentation.fromSystemProperties());
+    }
+
+    public static CommandParams getDefaultUseS3(final String url, final String testCase, final Boolean setIds, final PageRepresentation pageRepresentation){
 
         return CommandParams.builder()
             .url(url)
@@ -103,16 +128,22 @@ public class CommandParams {
             .loadWaitTime(5000)
             .useS3(Boolean.TRUE)
             .setIds(setIds)
+            .pageRepresentation(pageRepresentation)
             .testCase(testCase)
         .build();
     }    
 
     public static CommandParams getDefault(final String url, final String testCase, final Boolean setIds){
+        return getDefault(url, testCase, setIds, PageRepresentation.fromSystemProperties());
+    }
+
+    public static CommandParams getDefault(final String url, final String testCase, final Boolean setIds, final PageRepresentation pageRepresentation){
 
         return CommandParams.builder()
             .url(url)
             .useS3(Boolean.FALSE)
             .setIds(setIds)
+            .pageRepresentation(pageRepresentation)
             .testCase(testCase)
         .build();
     }
@@ -0,0 +1,20 @@
+package com.example.selenium.command;
+
+/**
+ * How the page is described to the model on each step.
+ */
+public enum PageRepresentation {
+
+    /** The cleaned HTML of the whole page */
+    HTML,
+    /** The whole page on the first step and after a navigation, then an outline plus the elements that changed */
+    DIFF,
+    /** An outline of the accessibility tree: landmarks, headings and interactive elements with their ids */
+    ACCESSIBILITY_TREE;
+
+    public static final String PROPERTY = "test-automation.page.representation";
+
+    public static PageRepresentation fromSystemProperties() {
+        return valueOf(System.getProperty(PROPERTY, HTML.name()).toUpperCase());
+    }
+}
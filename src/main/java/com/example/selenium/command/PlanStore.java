@@ -0,0 +1,149 @@
+package com.example.selenium.command;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.example.selenium.html.HtmlElement;
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Action traces of the test cases that succeeded, keyed by URL and test case. Each step keeps the actions sent to
+ * the page and a fingerprint of the page they were taken on: its location and the ids of its interactive elements.
+ * The next run of the test replays the steps while the fingerprints match and only asks the model when the page
+ * diverges, and to confirm the result at the end.
+ *
+ * One JSON file per test case, in the plans directory.
+ *
+ * Metrics: plan.saved and plan.discarded counters.
+ */
+public class PlanStore {
+
+    private static final Logger logger = LogManager.getLogger(PlanStore.class);
+
+    public static final String ENABLED_PROPERTY = "test-automation.plans";
+    public static final String DIR_PROPERTY = "test-automation.plans.dir";
+
+    /**
+     * Actions taken on the page with the given fingerprint.
+     */
+    public record Step(String fingerprint, JSONArray actions) {
+    }
+
+    private final Path dir;
+
+    public PlanStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The store, or null when plans are disabled (default).
+     */
+    public static PlanStore fromSystemProperties() {
+
+        if( !Boolean.getBoolean(ENABLED_PROPERTY) ){
+            return null;
+        }
+        return new PlanStore(Path.of(System.getProperty(DIR_PROPERTY, "plans")));
+    }
+
+    /**
+     * Fingerprint of the page: location without fragment and the sorted ids of the interactive elements. Element ids
+     * are derived from structure (see {@link HtmlElement#deriveId(String)}), so the same page gets the same one.
+     */
+    public static String fingerprint(String location, List<HtmlElement> elements) {
+
+        int fragment = location.indexOf('#');
+        StringBuilder signature = new StringBuilder(fragment == -1 ? location : location.substring(0, fragment));
+        TreeSet<String> ids = new TreeSet<>();
+        elements.forEach(e -> ids.add(e.getId()));
+        ids.forEach(id -> signature.append('|').append(id));
+        return HtmlElement.deriveId(signature.toString());
+    }
+
+    /**
+     * Steps of the last successful run, empty when there is none.
+     */
+    public List<Step> find(String url, String testCase) {
+
+        Path file = file(url, testCase);
+        List<Step> steps = new ArrayList<>();
+        if( !Files.exists(file) ){
+            return steps;
+        }
+        try{
+            JSONObject plan = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            JSONArray saved = plan.getJSONArray("steps");
+            for( int i=0; i<saved.length(); i++ ){
+                JSONObject step = saved.getJSONObject(i);
+                steps.add(new Step(step.getString("fingerprint"), step.getJSONArray("actions")));
+            }
+            logger.info("Found plan with "+steps.size()+" steps for test case: "+testCase);
+        }catch(Exception e){
+            logger.error("Ignoring unreadable plan "+file+". Msg: "+e.getMessage());
+            steps.clear();
+        }
+        return steps;
+    }
+
+    public void save(String url, String testCase, List<Step> steps) {
+
+        JSONArray saved = new JSONArray();
+        steps.forEach(s -> saved.put(new JSONObject()
+            .put("fingerprint", s.fingerprint())
+            .put("actions", s.actions())));
+        JSONObject plan = new JSONObject()
+            .put("url", url)
+            .put("testCase", testCase)
+            .put("steps", saved);
+        Path file = file(url, testCase);
+        try{
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "plan", ".tmp");
+            Files.writeString(tmp, plan.toString(2), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.increment("plan.saved");
+            logger.info("Saved plan with "+steps.size()+" steps to "+file);
+        }catch(IOException e){
+            logger.error("Error saving plan "+file+". Msg: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets the plan, used when a run that replayed it failed.
+     */
+    public void discard(String url, String testCase) {
+
+        try{
+            if( Files.deleteIfExists(file(url, testCase)) ){
+                Metrics.increment("plan.discarded");
+                logger.info("Discarded plan of test case: "+testCase);
+            }
+        }catch(IOException e){
+            logger.error("Error discarding plan of test case "+testCase+". Msg: "+e.getMessage());
+        }
+    }
+
+    private Path file(String url, String testCase) {
+
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest((url+"\n"+testCase).getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(digest, 0, 16)+".json");
+        }catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,19 +1,16 @@
 package com.example.selenium.command;
 
-import java.io.File;
 import java.time.Duration;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.Keys;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.support.ui.FluentWait;
+
+import com.example.selenium.browser.BrowserPool;
+import com.example.selenium.browser.PageReadiness;
 
 public class SolveCaptcha  extends AbstractNavigation {
 
@@ -30,29 +27,15 @@ public class SolveCaptcha  extends AbstractNavigation {
         Integer loadWaitTime = params.getLoadWaitTime();        
         String testCase = params.getTestCase();
 
-        // Open the web browser and navigate to the app's URL
-        ChromeOptions options = new ChromeOptions();
-        options.setHeadless(Boolean.FALSE);
-        options.addArguments("--remote-allow-origins=*");  
-        options.addArguments("--window-size=2560,1440", "--no-sandbox", "--disable-dev-shm-usage");  
-
-        try{
-            browser = new ChromeDriver(options);
-        }catch(Exception e){
-            logger.error("Error starting the browser. Either the chromedriver is not available in the path or the version is different from your browser version. Msg: "+e.getMessage() );
-            throw e;
-        }
+        // Lease a warm browser from the pool and navigate to the app's URL
+        lease = BrowserPool.getDefault().lease();
+        browser = lease.driver();
         browser.get(url);
-        Thread.sleep(loadWaitTime);
         while(true){
             //wait for it to finish loading.
-            FluentWait<WebDriver> wait = new FluentWait<>(browser);
-            wait.withTimeout(Duration.ofMillis(loadWaitTime));
-            wait.pollingEvery(Duration.ofMillis(250));
-            wait.until(browser-> ((JavascriptExecutor)browser).executeScript("return document.readyState").toString().equals("complete"));
+            PageReadiness.await(browser, Duration.ofMillis(params.getDelay()), Duration.ofMillis(loadWaitTime));
 
-            File screenshot = screenshot();
-            String captchaResult = service.invokeWithImage(testCase, screenshot);
+            String captchaResult = service.invokeWithImage(testCase, image(screenshot()));
             String cleanResult = parseResponse(captchaResult);
             logger.info("Captcha result: "+cleanResult);
             new Actions(browser).sendKeys(Keys.TAB).perform();
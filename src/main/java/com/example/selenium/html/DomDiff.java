@@ -0,0 +1,336 @@
+package com.example.selenium.html;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Describes a page by what changed since the previous step. Every element of the cleaned page is keyed by a stable
+ * path (its id, or its position below the closest ancestor with an id) and hashed with its subtree. Subtrees whose
+ * hash did not change are left out: the model gets an outline of the page plus the elements that changed.
+ *
+ * The whole page is sent on the first step, after a navigation, and when the changes are larger than a fraction
+ * of the page. Model calls are stateless, so the last whole page and the descriptions since then are sent again as
+ * earlier turns of the conversation ({@link #history()}). They are sent whole on every step, so the whole page is
+ * also sent again once the turns since the last one are larger than the page, or than the token budget allows.
+ *
+ * Metrics: page.diff.full and page.diff.partial counters, page.diff.saved.chars counter.
+ */
+public class DomDiff {
+
+    private static final Logger logger = LogManager.getLogger(DomDiff.class);
+
+    public static final String MAX_RATIO_PROPERTY = "test-automation.diff.max.ratio";
+    private static final int SKELETON_DEPTH = 4;
+    private static final int SKELETON_MAX_ELEMENTS = 200;
+    private static final Set<String> LANDMARKS = Set.of("header", "nav", "main", "aside", "footer", "section", "form", "dialog", "table", "iframe");
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String UNCHANGED = "<unchanged/>";
+
+    private final double maxRatio;
+    private String previousLocation = null;
+    private Map<String, Hashes> previous = null;
+    private boolean full = true;
+    //the turns since the last whole page, that whole page first
+    private final List<String> history = new ArrayList<>();
+    private int anchorLength = 0;
+
+    public DomDiff(double maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    public static DomDiff fromSystemProperties() {
+        return new DomDiff(Double.parseDouble(System.getProperty(MAX_RATIO_PROPERTY, "0.5")));
+    }
+
+    /**
+     * What changed on a page since the previous step, before it is pruned to the token budget: elements pruned
+     * differently from one step to the next are not changes of the page.
+     * @param diff the outline and the changed elements, or null when the whole page must be sent
+     * @param reason why the whole page must be sent
+     */
+    public record Changes(String diff, String reason, int count) {
+    }
+
+    /**
+     * Describes the page last cleaned by cleaner.
+     * @param location URL of the page, a different one means the browser navigated
+     * @param fullHtml the whole cleaned page, returned when a diff is not worth it
+     */
+    public String describe(String location, HtmlCleaner cleaner, String fullHtml) {
+        return describe(compare(location, cleaner), fullHtml);
+    }
+
+    /**
+     * Compares the page last cleaned by cleaner with the previous one. Called before the page is pruned.
+     * @param location URL of the page, a different one means the browser navigated
+     */
+    public Changes compare(String location, HtmlCleaner cleaner) {
+
+        Document doc = cleaner.getDocument();
+        Map<String, Hashes> current = new HashMap<>();
+        Map<Element, String> paths = new IdentityHashMap<>();
+        hash(doc.body(), "body", current, paths, new HashSet<>());
+
+        Map<String, Hashes> before = previous;
+        boolean navigated = !location.equals(previousLocation);
+        previous = current;
+        previousLocation = location;
+        if( before == null || navigated ){
+            return new Changes(null, before == null ? "first step" : "navigated to "+location, 0);
+        }
+
+        List<Element> changed = new ArrayList<>();
+        collectChanges(doc.body(), before, current, paths, changed);
+        if( changed.isEmpty() ){
+            return new Changes(UNCHANGED, null, 0);
+        }
+        if( changed.size() == 1 && changed.get(0) == doc.body() ){
+            return new Changes(null, "the whole body changed", 1);
+        }
+
+        StringBuilder diff = new StringBuilder();
+        diff.append("<skeleton>");
+        skeleton(doc.body(), 0, diff, new int[]{ 0 });
+        diff.append("</skeleton>");
+        for( Element element : changed ){
+            diff.append("<change path=\"").append(paths.get(element)).append("\">")
+                .append(cleaner.render(element))
+                .append("</change>");
+        }
+        return new Changes(diff.toString(), null, changed.size());
+    }
+
+    /**
+     * Compares the page last cleaned by cleaner with the previous one, and asks for the whole page when the turns
+     * since the last one would cost more than it. Called before the page is pruned, the turns left are part of the
+     * prompt the page is pruned for.
+     * @param location URL of the page, a different one means the browser navigated
+     * @param pageLength length of the whole cleaned page
+     * @param availableTokens tokens of the budget left for the earlier turns and the changes
+     */
+    public Changes compare(String location, HtmlCleaner cleaner, int pageLength, int availableTokens) {
+
+        Changes changes = compare(location, cleaner);
+        if( changes.diff() == null ){
+            history.clear();
+        }else if( historyTokens() + PagePruner.estimateTokens(changes.diff()) > availableTokens ){
+            history.clear();
+            return new Changes(null, "the earlier steps and the changes exceed the token budget", changes.count());
+        }else if( historyLength() - anchorLength + changes.diff().length() > pageLength ){
+            history.clear();
+            return new Changes(null, "the steps since the last whole page are larger than the page", changes.count());
+        }
+        return changes;
+    }
+
+    /**
+     * The changes, or the whole page when they are larger than a fraction of it.
+     * @param fullHtml the whole page as it is sent to the model, once pruned
+     */
+    public String describe(Changes changes, String fullHtml) {
+
+        full = true;
+        if( changes.diff() == null ){
+            Metrics.increment("page.diff.full");
+            logger.info("Sending full page: "+changes.reason());
+            history.clear();
+            return fullHtml;
+        }
+        if( changes.diff().length() > fullHtml.length() * maxRatio ){
+            Metrics.increment("page.diff.full");
+            history.clear();
+            logger.info(String.format("Sending full page: changes exceed %.0f%% of the page", maxRatio*100));
+            return fullHtml;
+        }
+        full = false;
+        Metrics.increment("page.diff.partial");
+        Metrics.add("page.diff.saved.chars", fullHtml.length() - changes.diff().length());
+        if( changes.count() == 0 ){
+            logger.info("Page did not change since the previous step");
+        }else{
+            logger.info(String.format("Sending %d changed elements: %d chars instead of %d", changes.count(), changes.diff().length(), fullHtml.length()));
+        }
+        return changes.diff();
+    }
+
+    /**
+     * Whether the last description was the whole page. The changes that follow are relative to it, so the model
+     * needs it and every description since.
+     */
+    public boolean sentFullPage() {
+        return full;
+    }
+
+    /**
+     * Keeps the step the model answered as a turn of the conversation, the whole page it was sent or its changes.
+     * @param user the step as it is sent again: without the element list and the past actions, which the next step
+     * repeats
+     */
+    public void answered(String user, String answer) {
+
+        if( full ){
+            history.clear();
+            anchorLength = user.length() + answer.length();
+        }
+        history.add(user);
+        history.add(answer);
+    }
+
+    /**
+     * The last whole page and the steps since, alternating the step and the answer of the model.
+     */
+    public List<String> history() {
+        return List.copyOf(history);
+    }
+
+    public int historyTokens() {
+
+        int tokens = 0;
+        for( String turn : history ){
+            tokens += PagePruner.estimateTokens(turn);
+        }
+        return tokens;
+    }
+
+    private int historyLength() {
+
+        int length = 0;
+        for( String turn : history ){
+            length += turn.length();
+        }
+        return length;
+    }
+
+    /**
+     * Forgets the previous page and the conversation, so the next call sends it whole. Used when the model did not
+     * get the last one.
+     */
+    public void reset() {
+        previous = null;
+        previousLocation = null;
+        full = true;
+        history.clear();
+    }
+
+    /**
+     * Hashes the element and its subtree, bottom up.
+     * @return the subtree hash
+     */
+    private static long hash(Element element, String path, Map<String, Hashes> hashes, Map<Element, String> paths, Set<String> ids) {
+
+        paths.put(element, path);
+        long own = mix(FNV_OFFSET, element.normalName().hashCode());
+        long subtree = FNV_OFFSET;
+        for( Attribute attribute : element.attributes() ){
+            own = mix(own, attribute.getKey().hashCode());
+            own = mix(own, attribute.getValue().hashCode());
+        }
+        Map<String, Integer> siblings = new HashMap<>();
+        for( Node child : element.childNodes() ){
+            if( child instanceof TextNode text ){
+                if( !text.isBlank() ){
+                    own = mix(own, text.text().trim().hashCode());
+                }
+            }else if( child instanceof Element childElement ){
+                String childPath = path(childElement, path, siblings, ids);
+                //adding or removing a child changes the parent itself
+                own = mix(own, childPath.hashCode());
+                subtree = mix(subtree, hash(childElement, childPath, hashes, paths, ids));
+            }
+        }
+        subtree = mix(subtree, own);
+        hashes.put(path, new Hashes(own, subtree));
+        return subtree;
+    }
+
+    private static String path(Element element, String parentPath, Map<String, Integer> siblings, Set<String> ids) {
+
+        String id = element.id();
+        if( !id.isEmpty() && ids.add(id) ){
+            return "#"+id;
+        }
+        String tag = element.normalName();
+        int index = siblings.merge(tag, 1, Integer::sum);
+        return parentPath+"/"+tag+"["+index+"]";
+    }
+
+    /**
+     * Walks down from the body, skipping unchanged subtrees. An element is reported whole when it is new, or when
+     * its own attributes, text or children changed.
+     */
+    private static void collectChanges(Element element, Map<String, Hashes> before, Map<String, Hashes> current,
+            Map<Element, String> paths, List<Element> changed) {
+
+        String path = paths.get(element);
+        Hashes was = before.get(path);
+        Hashes is = current.get(path);
+        if( was != null && was.subtree == is.subtree ){
+            return;
+        }
+        if( was == null || was.own != is.own ){
+            changed.add(element);
+            return;
+        }
+        for( Element child : element.children() ){
+            collectChanges(child, before, current, paths, changed);
+        }
+    }
+
+    /**
+     * Outline of the page: landmarks and elements with an id, without text or other attributes.
+     */
+    private static void skeleton(Element element, int depth, StringBuilder out, int[] count) {
+
+        boolean shown = depth == 0 || !element.id().isEmpty() || LANDMARKS.contains(element.normalName());
+        if( shown ){
+            if( count[0]++ >= SKELETON_MAX_ELEMENTS ){
+                return;
+            }
+            out.append('<').append(element.normalName());
+            if( !element.id().isEmpty() ){
+                out.append(" id=\"").append(element.id()).append('"');
+            }
+            depth++;
+        }
+        int length = out.length();
+        if( shown ){
+            out.append('>');
+        }
+        if( depth <= SKELETON_DEPTH ){
+            for( Element child : element.children() ){
+                skeleton(child, depth, out, count);
+            }
+        }
+        if( shown ){
+            if( out.length() == length+1 ){
+                out.setLength(length);
+                out.append("/>");
+            }else{
+                out.append("</").append(element.normalName()).append('>');
+            }
+        }
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private record Hashes(long own, long subtree) {
+    }
+}
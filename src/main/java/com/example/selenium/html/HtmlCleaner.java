@@ -0,0 +1,234 @@
+package com.example.selenium.html;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+
+/**
+ * Reduces the page source to the markup the model needs. A single traversal of the parsed page removes scripts and
+ * styles and strips the attributes that only add noise (classes, data-* attributes, long links, image alt and srcset).
+ * The result is rendered into a buffer that is then compressed in one pass: whitespace is collapsed and comments
+ * are removed.
+ *
+ * Buffers are reused between calls, so an instance must not be shared by threads.
+ */
+public class HtmlCleaner {
+
+    private final StringBuilder rendered = new StringBuilder();
+    private final StringBuilder compressed = new StringBuilder();
+    private Document document = null;
+
+    public String clean(String html) {
+
+        Document doc = Jsoup.parse(html);
+        NodeTraversor.filter(new Rules(), doc);
+        document = doc;
+
+        rendered.setLength(0);
+        doc.html(rendered);
+        compress(rendered, compressed);
+        return compressed.toString();
+    }
+
+    /**
+     * The page cleaned by the last call to {@link #clean(String)}.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Compressed markup of a single node of the cleaned page.
+     */
+    public String render(Node node) {
+
+        rendered.setLength(0);
+        rendered.append(node.outerHtml());
+        compress(rendered, compressed);
+        return compressed.toString();
+    }
+
+    private static class Rules implements NodeFilter {
+
+        private boolean coverageRemoved = false;
+
+        @Override
+        public FilterResult head(Node node, int depth) {
+
+            if( !(node instanceof Element element) ){
+                return FilterResult.CONTINUE;
+            }
+            switch( element.normalName() ){
+                case "script", "style":
+                    return FilterResult.REMOVE;
+                case "div", "span", "ul":
+                    element.removeAttr("class");
+                    break;
+                case "a":
+                    shortenHref(element);
+                    break;
+                case "img":
+                    element.removeAttr("alt");
+                    element.removeAttr("srcset");
+                    break;
+                case "iframe":
+                    removeSrcdocScripts(element);
+                    break;
+                default:
+                    break;
+            }
+            if( !coverageRemoved && "coverage".equals(element.id()) ){
+                coverageRemoved = true;
+                return FilterResult.REMOVE;
+            }
+            removeDataAttributes(element);
+            return FilterResult.CONTINUE;
+        }
+
+        @Override
+        public FilterResult tail(Node node, int depth) {
+            return FilterResult.CONTINUE;
+        }
+    }
+
+    /**
+     * Elements with a data-* attribute lose every attribute whose name contains "data-".
+     */
+    private static void removeDataAttributes(Element element) {
+
+        boolean hasData = false;
+        for( Attribute attribute : element.attributes() ){
+            if( attribute.getKey().startsWith("data-") ){
+                hasData = true;
+                break;
+            }
+        }
+        if( !hasData ){
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for( Attribute attribute : element.attributes() ){
+            if( attribute.getKey().indexOf("data-") != -1 ){
+                keys.add(attribute.getKey());
+            }
+        }
+        keys.forEach(element::removeAttr);
+    }
+
+    /**
+     * Keeps the first path segment of relative links and the host of https links.
+     */
+    private static void shortenHref(Element link) {
+
+        String href = link.attr("href");
+        if( href.startsWith("/") ){
+            String[] parts = href.split("/");
+            if( parts.length > 2 ){
+                link.attr("href", "/"+parts[1]+"/");
+            }
+        }else if( href.startsWith("https") ){
+            String[] parts = href.split("/");
+            if( parts.length > 3 ){
+                link.attr("href", "https://"+parts[2]);
+            }
+            if( parts.length == 3 ){
+                if( parts[2].indexOf("?") != -1 ){
+                    link.attr("href", "https://"+parts[2].substring(0, parts[2].indexOf("?")));
+                }else{
+                    link.attr("href", "https://"+parts[2]);
+                }
+            }
+        }
+    }
+
+    private static void removeSrcdocScripts(Element iframe) {
+
+        if( !iframe.attributes().hasKey("srcdoc") ){
+            return;
+        }
+        Document iframeDoc = Jsoup.parse(iframe.attributes().get("srcdoc"));
+        iframeDoc.select("script").remove();
+        iframe.attributes().put("srcdoc", iframeDoc.outerHtml());
+    }
+
+    /**
+     * Collapses every run of whitespace into a single space, drops comments except conditional comments and removes
+     * the space before the end of a tag, like HtmlCompressor did. Leading and trailing whitespace is removed.
+     */
+    static void compress(CharSequence in, StringBuilder out) {
+
+        out.setLength(0);
+        boolean space = false;
+        boolean inTag = false;
+        int length = in.length();
+        int i = 0;
+        while( i < length ){
+            char c = in.charAt(i);
+            if( isWhitespace(c) ){
+                space = true;
+                i++;
+                continue;
+            }
+            if( c == '<' && startsWith(in, i, "<!--") ){
+                int end = -1;
+                if( startsWith(in, i, "<!---->") ){
+                    end = i + 7;
+                }else if( i+4 < length && in.charAt(i+4) != '[' ){
+                    int close = indexOf(in, "-->", i+5);
+                    end = close == -1 ? -1 : close + 3;
+                }
+                if( end != -1 ){
+                    i = end;
+                    continue;
+                }
+            }
+            boolean tagEnd = c == '>' || (c == '/' && i+1 < length && in.charAt(i+1) == '>');
+            if( space && out.length() > 0 && !(inTag && tagEnd) ){
+                out.append(' ');
+            }
+            space = false;
+            if( c == '<' ){
+                inTag = true;
+            }else if( c == '>' ){
+                inTag = false;
+            }
+            out.append(c);
+            i++;
+        }
+    }
+
+    //same characters as \s in java.util.regex
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean startsWith(CharSequence in, int offset, String prefix) {
+
+        if( offset + prefix.length() > in.length() ){
+            return false;
+        }
+        for( int i=0; i<prefix.length(); i++ ){
+            if( in.charAt(offset+i) != prefix.charAt(i) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence in, String target, int from) {
+
+        for( int i=from; i<=in.length()-target.length(); i++ ){
+            if( startsWith(in, i, target) ){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
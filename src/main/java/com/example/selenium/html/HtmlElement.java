@@ -1,6 +1,6 @@
 package com.example.selenium.html;
 
-import java.util.UUID;
+import java.util.Map;
 
 import org.openqa.selenium.WebElement;
 
@@ -12,17 +12,19 @@ public class HtmlElement {
     private Boolean idGenerated = Boolean.FALSE;
 
 
-    public HtmlElement(String type, String id, WebElement element) {
+    /**
+     * Element whose id was already assigned in the page (see getHtmlElements). Ids are only derived by the page
+     * script: the WebElement handle changes with every lookup and would give the element a new id at every step.
+     */
+    public HtmlElement(String type, String id, WebElement element, Boolean idGenerated) {
 
-        this.type = type;
-        if( id == null || "".equals(id)){
-            String tempId = UUID.randomUUID().toString();
-            this.id = tempId.substring(0, tempId.indexOf("-"));
-            idGenerated = Boolean.TRUE;
-        }else{
-            this.id = id;
+        if( id == null || "".equals(id) ){
+            throw new IllegalArgumentException("Element of type "+type+" has no id");
         }
+        this.type = type;
+        this.id = id;
         this.element = element;
+        this.idGenerated = idGenerated;
     }
    
     public String getType() {
@@ -39,6 +41,33 @@ public class HtmlElement {
         return idGenerated;
     }
 
+    /**
+     * Id derived from a description of the element (FNV-1a, 8 hex characters). The page script uses the same hash on
+     * the element's structural path and key attributes, so an unchanged element keeps its id across steps and runs.
+     */
+    public static String deriveId(String signature) {
+
+        int hash = 0x811c9dc5;
+        for( int i=0; i<signature.length(); i++ ){
+            hash ^= signature.charAt(i);
+            hash *= 0x01000193;
+        }
+        return String.format("%08x", hash);
+    }
+
+    /**
+     * Element described by harvest-elements.js: {e: element, t: type, id: id, g: generated}.
+     */
+    public static HtmlElement fromHarvest(Map<?, ?> descriptor) {
+
+        return builder()
+            .id((String)descriptor.get("id"))
+            .type((String)descriptor.get("t"))
+            .element((WebElement)descriptor.get("e"))
+            .idGenerated((Boolean)descriptor.get("g"))
+            .build();
+    }
+
     public String toString() {
         return String.format("[type=%s,id=%s]", type, id);
     }
@@ -51,6 +80,7 @@ public class HtmlElement {
         private String type;
         private String id;
         private WebElement element;
+        private Boolean idGenerated = Boolean.FALSE;
 
         public Builder type(String type) {
             this.type = type;
@@ -67,8 +97,13 @@ public class HtmlElement {
             return this;
         }
 
+        public Builder idGenerated(Boolean idGenerated) {
+            this.idGenerated = idGenerated;
+            return this;
+        }
+
         public HtmlElement build() {
-            return new HtmlElement(type, id, element);
+            return new HtmlElement(type, id, element, idGenerated);
         }
     }
 }
@@ -0,0 +1,266 @@
+package com.example.selenium.html;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import com.example.selenium.metrics.Metrics;
+
+/**
+ * Keeps the page within a token budget. When the cleaned page and the list of elements do not fit, the page is split
+ * into subtrees that are scored by their relevance to the test case: words shared with the test case, visible
+ * interactive elements they contain and hidden content. The subtrees with the lowest score per token are dropped
+ * until the page fits, then the least relevant elements of the list if it is still too large.
+ *
+ * Tokens are estimated as one every four characters.
+ *
+ * Metrics: prompt.pruned.steps and prompt.pruned.tokens counters.
+ */
+public class PagePruner {
+
+    private static final Logger logger = LogManager.getLogger(PagePruner.class);
+
+    public static final String TOKEN_BUDGET_PROPERTY = "test-automation.prompt.token.budget";
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MIN_UNIT_CHARS = 500;
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]{3,}");
+    private static final Set<String> STOP_WORDS = Set.of("the", "and", "for", "you", "your", "are", "with", "that",
+        "this", "when", "should", "test", "case", "from", "into", "then", "will", "has", "have", "not", "can", "its");
+    private static final Set<String> INTERACTIVE = Set.of("a", "button", "input", "select", "textarea", "option");
+    private static final String[] LABELS = { "id", "name", "placeholder", "aria-label", "title", "value", "href" };
+
+    private final int tokenBudget;
+
+    public PagePruner(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    public static PagePruner fromSystemProperties() {
+        return new PagePruner(Integer.getInteger(TOKEN_BUDGET_PROPERTY, 60000));
+    }
+
+    public int tokenBudget() {
+        return tokenBudget;
+    }
+
+    public static int estimateTokens(CharSequence text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Page and elements that fit in the budget.
+     */
+    public record Result(String html, List<HtmlElement> elements, int prunedTokens) {
+    }
+
+    /**
+     * Prunes the page last cleaned by cleaner, in place.
+     * @param html the cleaned page
+     * @param elements elements the model can interact with
+     * @param testCase description of the test case
+     * @param reservedTokens tokens taken by the rest of the prompt
+     */
+    public Result prune(HtmlCleaner cleaner, String html, List<HtmlElement> elements, String testCase, int reservedTokens) {
+
+        int budget = Math.max(0, tokenBudget - reservedTokens);
+        int before = estimateTokens(html) + elementTokens(elements);
+        if( before <= budget ){
+            return new Result(html, elements, 0);
+        }
+
+        Document doc = cleaner.getDocument();
+        Set<String> terms = terms(testCase);
+        Set<String> visible = new HashSet<>();
+        elements.forEach(e -> visible.add(e.getId()));
+        Map<Element, Integer> sizes = new IdentityHashMap<>();
+        int total = size(doc.body(), sizes);
+
+        List<Unit> units = new ArrayList<>();
+        split(doc.body(), Math.max(MIN_UNIT_CHARS, total / 100), sizes, units);
+        units.forEach(u -> u.score = score(u, terms, visible));
+        units.sort(Comparator.comparingDouble((Unit u) -> u.score / u.chars));
+
+        //sizes are measured before compression, scale them to the cleaned page and check the real size once rendered
+        double compression = (double)html.length() / Math.max(1, total);
+        int elementTokens = elementTokens(elements);
+        String pruned = html;
+        int pageChars = html.length();
+        int removed = 0;
+        while( removed < units.size() && estimateTokens(pruned) + elementTokens > budget ){
+            while( removed < units.size() && pageChars / CHARS_PER_TOKEN + elementTokens > budget ){
+                Unit unit = units.get(removed++);
+                unit.element.remove();
+                pageChars -= (int)(unit.chars * compression);
+            }
+            pruned = cleaner.render(doc);
+            pageChars = pruned.length();
+        }
+
+        //elements inside removed subtrees are not shown to the model anymore
+        List<HtmlElement> kept = new ArrayList<>();
+        for( HtmlElement element : elements ){
+            if( element.getId() == null || doc.getElementById(element.getId()) != null ){
+                kept.add(element);
+            }
+        }
+        int droppedElements = elements.size() - kept.size();
+        int available = budget - estimateTokens(pruned);
+        if( elementTokens(kept) > available ){
+            //spans last, inputs first
+            List<HtmlElement> ranked = new ArrayList<>(kept);
+            ranked.sort(Comparator.comparingInt((HtmlElement e) -> elementScore(e, doc, terms)).reversed());
+            List<HtmlElement> fit = new ArrayList<>();
+            int tokens = 0;
+            for( HtmlElement element : ranked ){
+                int t = elementTokens(List.of(element));
+                if( tokens + t > available ){
+                    break;
+                }
+                fit.add(element);
+                tokens += t;
+            }
+            droppedElements += kept.size() - fit.size();
+            Set<HtmlElement> fits = new HashSet<>(fit);
+            kept.removeIf(e -> !fits.contains(e));
+        }
+
+        int after = estimateTokens(pruned) + elementTokens(kept);
+        Metrics.increment("prompt.pruned.steps");
+        Metrics.add("prompt.pruned.tokens", before - after);
+        logger.info(String.format("Pruned page from %d to %d tokens (budget %d): removed %d of %d subtrees and %d of %d elements",
+            before, after, budget, removed, units.size(), droppedElements, elements.size()));
+        return new Result(pruned, kept, before - after);
+    }
+
+    private static int elementTokens(List<HtmlElement> elements) {
+
+        int chars = 0;
+        for( HtmlElement element : elements ){
+            chars += element.toString().length() + 2;
+        }
+        return chars / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Approximate rendered size of every element, bottom up.
+     */
+    private static int size(Element element, Map<Element, Integer> sizes) {
+
+        int size = 2 * element.normalName().length() + 5;
+        for( Attribute attribute : element.attributes() ){
+            size += attribute.getKey().length() + attribute.getValue().length() + 4;
+        }
+        for( Node child : element.childNodes() ){
+            if( child instanceof TextNode text ){
+                size += text.getWholeText().length();
+            }else if( child instanceof Element childElement ){
+                size += size(childElement, sizes);
+            }
+        }
+        sizes.put(element, size);
+        return size;
+    }
+
+    /**
+     * Splits the page into subtrees no larger than unitChars. Larger elements are split into their children.
+     */
+    private static void split(Element element, int unitChars, Map<Element, Integer> sizes, List<Unit> units) {
+
+        for( Element child : element.children() ){
+            int size = sizes.get(child);
+            if( size <= unitChars || child.childrenSize() == 0 ){
+                units.add(new Unit(child, size));
+            }else{
+                split(child, unitChars, sizes, units);
+            }
+        }
+    }
+
+    private static double score(Unit unit, Set<String> terms, Set<String> visible) {
+
+        Element root = unit.element;
+        if( isHidden(root) ){
+            return 0;
+        }
+        Set<String> words = terms(root.text());
+        double score = 1;
+        for( Element element : root.getAllElements() ){
+            if( isHidden(element) ){
+                continue;
+            }
+            for( String label : LABELS ){
+                if( element.hasAttr(label) ){
+                    words.addAll(terms(element.attr(label)));
+                }
+            }
+            if( visible.contains(element.id()) ){
+                score += 3;
+            }else if( INTERACTIVE.contains(element.normalName()) || element.hasAttr("onclick") ){
+                score += 1;
+            }
+        }
+        words.retainAll(terms);
+        return score + 4 * words.size();
+    }
+
+    private static int elementScore(HtmlElement element, Document doc, Set<String> terms) {
+
+        int score = "input".equals(element.getType()) ? 4 : 2;
+        Element node = element.getId() == null ? null : doc.getElementById(element.getId());
+        if( node != null ){
+            if( "span".equals(node.normalName()) ){
+                score -= 1;
+            }
+            Set<String> words = terms(node.text());
+            words.retainAll(terms);
+            score += 4 * words.size();
+        }
+        return score;
+    }
+
+    private static boolean isHidden(Element element) {
+
+        return element.hasAttr("hidden")
+            || "true".equals(element.attr("aria-hidden"))
+            || element.attr("style").replace(" ", "").contains("display:none");
+    }
+
+    private static Set<String> terms(String text) {
+
+        Set<String> terms = new HashSet<>();
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while( matcher.find() ){
+            if( !STOP_WORDS.contains(matcher.group()) ){
+                terms.add(matcher.group());
+            }
+        }
+        return terms;
+    }
+
+    private static class Unit {
+
+        private final Element element;
+        private final int chars;
+        private double score;
+
+        private Unit(Element element, int chars) {
+            this.element = element;
+            this.chars = Math.max(1, chars);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.selenium.metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+/**
+ * Process wide counters, timers and gauges. A snapshot is written to the log periodically so it ends up
+ * in CloudWatch Logs with the rest of the output of the task.
+ */
+public final class Metrics {
+
+    private static final Logger logger = LogManager.getLogger(Metrics.class);
+
+    public static final String REPORT_INTERVAL_PROPERTY = "test-automation.metrics.report.s";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long value) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(value);
+    }
+
+    public static long count(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Records one observation of a duration.
+     */
+    public static void record(String name, long nanos) {
+        timers.computeIfAbsent(name, k -> new Timer()).record(nanos);
+    }
+
+    public static void gauge(String name, Supplier<? extends Number> value) {
+        gauges.put(name, value);
+    }
+
+    public static Map<String, Object> snapshot() {
+
+        Map<String, Object> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        timers.forEach((name, timer) -> snapshot.put(name, timer.toMap()));
+        return snapshot;
+    }
+
+    /**
+     * Logs a snapshot every interval. Calling it again has no effect.
+     */
+    public static synchronized void startReporting(Duration interval) {
+
+        if( reporter != null ){
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(Metrics::report, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public static void report() {
+        logger.info("Metrics: "+new JSONObject(snapshot()));
+    }
+
+    private static class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private Map<String, Object> toMap() {
+
+            long n = count.sum();
+            Map<String, Object> values = new TreeMap<>();
+            values.put("count", n);
+            values.put("avgMs", n == 0 ? 0 : totalNanos.sum() / n / 1_000_000d);
+            values.put("maxMs", maxNanos.get() / 1_000_000d);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.selenium.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free queue of jobs kept in memory. Used to run the worker loop without AWS, e.g. for throughput
+ * benchmarks and soak tests. Abandoned jobs are delivered again unless redelivery is turned off.
+ */
+public class InMemoryJobSource implements JobSource {
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final boolean redeliver;
+    private volatile boolean closed = false;
+
+    public InMemoryJobSource() {
+        this(true);
+    }
+
+    public InMemoryJobSource(boolean redeliver) {
+        this.redeliver = redeliver;
+    }
+
+    public InMemoryJobSource offer(String body) {
+        queue.offer(new Job(UUID.randomUUID().toString(), body));
+        return this;
+    }
+
+    @Override
+    public List<Job> receive(int max, Duration maxWait) {
+
+        List<Job> jobs = new ArrayList<>();
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        long park = 1000;
+        while( true ){
+            Job job;
+            while( jobs.size() < max && (job = queue.poll()) != null ){
+                inFlight.incrementAndGet();
+                jobs.add(job);
+            }
+            if( !jobs.isEmpty() || isExhausted() || System.nanoTime() >= deadline || Thread.currentThread().isInterrupted() ){
+                return jobs;
+            }
+            LockSupport.parkNanos(Math.min(park, deadline - System.nanoTime()));
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void complete(Job job) {
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+    }
+
+    @Override
+    public void abandon(Job job) {
+        abandoned.incrementAndGet();
+        if( redeliver ){
+            queue.offer(job);
+        }
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Stops accepting new work. The source is exhausted once the jobs already queued are done.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return closed && queue.isEmpty() && inFlight.get() == 0;
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    public long abandoned() {
+        return abandoned.get();
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+}
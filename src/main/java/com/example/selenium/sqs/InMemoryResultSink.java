@@ -0,0 +1,21 @@
+package com.example.selenium.sqs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the published results in memory.
+ */
+public class InMemoryResultSink implements ResultSink {
+
+    private final ConcurrentLinkedQueue<String> results = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void publish(String payload) {
+        results.offer(payload);
+    }
+
+    public List<String> getResults() {
+        return List.copyOf(results);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.selenium.sqs;
+
+/**
+ * A test request taken from a {@link JobSource}. The body has the same shape as sample-test-payload.json:
+ * an id, a url and the list of testCases.
+ */
+public class Job {
+
+    private final String handle;
+    private final String body;
+
+    public Job(String handle, String body) {
+        this.handle = handle;
+        this.body = body;
+    }
+
+    /**
+     * Identifies the job within its source, e.g. the SQS receipt handle.
+     */
+    public String getHandle() {
+        return handle;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String toString() {
+        return String.format("[handle=%s,body=%s]", handle, body);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.selenium.sqs;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Where {@link MessageHandler} takes its test requests from.
+ */
+public interface JobSource extends AutoCloseable {
+
+    /**
+     * Waits up to maxWait for jobs to be available.
+     * @return at most max jobs, or an empty list when none arrived in time
+     */
+    public abstract List<Job> receive(int max, Duration maxWait) throws Exception;
+
+    /**
+     * The job finished and its result was published. It must not be delivered again.
+     */
+    public abstract void complete(Job job);
+
+    /**
+     * The job could not be processed. Sources that support it deliver the job again later.
+     */
+    public abstract void abandon(Job job);
+
+    /**
+     * @return true when no job will ever be delivered again, so the handler can stop
+     */
+    public default boolean isExhausted() {
+        return false;
+    }
+
+    @Override
+    public default void close() {
+    }
+}
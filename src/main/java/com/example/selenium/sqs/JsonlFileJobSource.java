@@ -0,0 +1,38 @@
+package com.example.selenium.sqs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Reads jobs from a file of JSON objects with the same shape as sample-test-payload.json. Objects can be
+ * one per line (JSONL) or spread over several lines. Every job runs once; the source is exhausted when
+ * all of them finished.
+ */
+public class JsonlFileJobSource extends InMemoryJobSource {
+
+    private static final Logger logger = LogManager.getLogger(JsonlFileJobSource.class);
+
+    public JsonlFileJobSource(Path file) throws IOException {
+
+        super(false);
+        int count = 0;
+        try( Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8) ){
+            JSONTokener tokener = new JSONTokener(reader);
+            while( tokener.skipTo('{') != 0 ){
+                offer(new JSONObject(tokener).toString());
+                count++;
+            }
+        }
+        logger.info("Loaded "+count+" jobs from "+file);
+        //nothing else will be added
+        close();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.selenium.sqs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.json.JSONObject;
+
+/**
+ * Appends every result as one line of JSON to a file.
+ */
+public class JsonlFileResultSink implements ResultSink {
+
+    private final BufferedWriter writer;
+
+    public JsonlFileResultSink(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void publish(String payload) {
+        try{
+            writer.write(new JSONObject(payload).toString());
+            writer.newLine();
+            writer.flush();
+        }catch(IOException e){
+            throw new UncheckedIOException("Could not write result "+payload, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try{
+            writer.close();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.example.selenium.sqs;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,207 +13,281 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.example.selenium.AppInfra;
 import com.example.selenium.command.AbstractNavigation;
 import com.example.selenium.command.Command;
 import com.example.selenium.command.CommandParams;
 import com.example.selenium.command.Navigate;
+import com.example.selenium.command.PageRepresentation;
 import com.example.selenium.command.SolveCaptcha;
 
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
-import software.amazon.awssdk.services.sqs.model.Message;
-import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
-import software.amazon.awssdk.services.ssm.SsmClient;
-import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
-import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
-
 public class MessageHandler {
 
     private static final Logger logger = LogManager.getLogger(MessageHandler.class);
-    private final SsmClient ssmClient;
-    private final SqsClient sqsClient;
-    private final String QUEUE_URL;
-    private final String REPLY_QUEUE_URL;
-    
+
+    public static final String PREFETCH_PROPERTY = "test-automation.prefetch";
+    private static final Duration RECEIVE_WAIT = Duration.ofSeconds(20);
+    private static final long SHUTDOWN_WAIT_SECONDS = 3600;
+
+    private final JobSource source;
+    private final ResultSink sink;
+    private final Boolean useS3;
+    private final WorkerPool workers;
+    private final LinkedBlockingQueue<Job> prefetched = new LinkedBlockingQueue<>();
+    private final Semaphore prefetchSpace;
+    private volatile boolean receiving = true;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread shutdownHook = new Thread(this::close, "job-source-shutdown");
+
+    /**
+     * Reads from the SQS queue and replies to the reply queue created by AppInfra. Screenshots are stored in S3.
+     */
     public MessageHandler(){
+        this(SqsJobSource.fromParameterStore());
+    }
 
-                // Create an SsmClient
-        ssmClient = SsmClient.builder().build();
+    private MessageHandler(SqsJobSource source){
+        this(source, source.replySink(), Boolean.TRUE);
+    }
 
-        // Get the value of a parameter from the Parameter Store
-        GetParameterRequest getParameterRequest = GetParameterRequest.builder()
-            .name("/"+AppInfra.Constants.APP_NAME+"/queue-url")
-            .build();
+    public MessageHandler(JobSource source, ResultSink sink, Boolean useS3){
 
-        GetParameterRequest getParameterRequestReplyQueue = GetParameterRequest.builder()
-            .name("/"+AppInfra.Constants.APP_NAME+"/queue-reply-url")
-            .build();                                                
+        this.source = source;
+        this.sink = sink;
+        this.useS3 = useS3;
+        workers = WorkerPool.fromSystemProperties();
+        //jobs wait in the buffer while the workers are busy, so keep it about the size of the pool
+        prefetchSpace = new Semaphore(Integer.getInteger(PREFETCH_PROPERTY, workers.size()));
+        //publish and complete whatever is still buffered when the task is stopped
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
 
-        GetParameterResponse getParameterResponse = ssmClient.getParameter(getParameterRequest);
-        QUEUE_URL = getParameterResponse.parameter().value();
+    /**
+     * Runs jobs until the source is exhausted. Sources backed by a queue are never exhausted.
+     */
+    public void processMessages() {
 
-        GetParameterResponse getParameterReplyQueue = ssmClient.getParameter(getParameterRequestReplyQueue);
-        REPLY_QUEUE_URL = getParameterReplyQueue.parameter().value();
+        Thread receiver = new Thread(this::receiveMessages, "job-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
 
-        logger.info("Will reply to queue "+REPLY_QUEUE_URL);
-        logger.info("Reading from queue "+QUEUE_URL);
-        sqsClient = SqsClient.builder().build();
+        while(true){
 
+            Job job = null;
+            try{
+                workers.acquire();
+                try{
+                    while( job == null && (receiving || !prefetched.isEmpty()) ){
+                        job = prefetched.poll(1, TimeUnit.SECONDS);
+                    }
+                }catch(InterruptedException e){
+                    workers.release();
+                    throw e;
+                }
+            }catch(InterruptedException e){
+                logger.info("Interrupted while waiting for a free worker. Stopping");
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if( job == null ){
+                workers.release();
+                logger.info("No more jobs to run");
+                break;
+            }
+            prefetchSpace.release();
+            final Job next = job;
+            workers.submit(() -> processMessage(next));
+        }
+        receiver.interrupt();
+        try{
+            workers.shutdown(SHUTDOWN_WAIT_SECONDS);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        close();
+        try{
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }catch(IllegalStateException e){
+            //already shutting down, the hook finds the handler closed
+        }
     }
 
-    public void processMessages() {
+    /**
+     * Keeps the prefetch buffer filled. Each receive asks for as many jobs as there is room for in the buffer,
+     * up to 10 which is the most SQS returns in a single call.
+     */
+    private void receiveMessages() {
 
-        while(true){
+        while(!Thread.currentThread().isInterrupted() && !source.isExhausted()){
 
+            int room = 0;
+            try{
+                prefetchSpace.acquire();
+                room = 1;
+                while( room < SqsBatcher.MAX_BATCH && prefetchSpace.tryAcquire() ){
+                    room++;
+                }
+            }catch(InterruptedException e){
+                prefetchSpace.release(room);
+                Thread.currentThread().interrupt();
+                break;
+            }
 
-            List<Message> messages = null;
+            List<Job> jobs = null;
             try{
-                messages = readSqs(sqsClient, QUEUE_URL);
+                jobs = source.receive(room, RECEIVE_WAIT);
             }catch(Exception e){
-                logger.error("Error reading from queue "+QUEUE_URL+". Will try again in 3 seconds. Msg: "+e.getMessage());
+                prefetchSpace.release(room);
+                logger.error("Error reading jobs. Will try again in 3 seconds. Msg: "+e.getMessage());
                 try {
                     Thread.sleep(3000);
                 }catch (InterruptedException e1) {
-                    e1.printStackTrace();
+                    Thread.currentThread().interrupt();
                 }
                 continue;
             }
-            logger.info("Found messages: " + messages);
+            prefetchSpace.release(room - jobs.size());
+            if( !jobs.isEmpty() ){
+                logger.info("Found messages: " + jobs);
+                prefetched.addAll(jobs);
+            }
+        }
+        receiving = false;
+    }
 
-            for (Message message : messages) {
+    private void processMessage(Job job) {
 
-                logger.info("Message body: " + message.body());
-                Command command = null;
-                // Parse the response to get the selected element ID and explanation
+        logger.info("Message body: " + job.getBody());
+        try{
+            JSONObject jsonResponse = new JSONObject(job.getBody());
+            String url = null;
+            String id = null;
+            Boolean setIds = Boolean.FALSE;
+            PageRepresentation pageRepresentation = PageRepresentation.fromSystemProperties();
+            JSONArray testCases = null;
+            try{
+                url = jsonResponse.getString("url");
+                id = jsonResponse.getString("id");
+                testCases = jsonResponse.getJSONArray("testCases");
+            }catch(JSONException e){
+                logger.info("Message body needs to include id, url and testCases[]. Discarding message.");
+                source.complete(job);
+                return;
+            }
+            try{
+                setIds = jsonResponse.getBoolean("setIds");
+            }catch(JSONException e){}   
+            if( jsonResponse.has("pageRepresentation") ){
                 try{
-                    JSONObject jsonResponse = new JSONObject(message.body());
-                    String url = null;
-                    String id = null;
-                    Boolean setIds = Boolean.FALSE;
-                    JSONArray testCases = null;
-                    try{
-                        url = jsonResponse.getString("url");
-                        id = jsonResponse.getString("id");
-                        testCases = jsonResponse.getJSONArray("testCases");
-                    }catch(JSONException e){
-                        logger.info("Message body needs to include id, url and testCases[]. Discarding message.");
-                        deleteSqsMessage(sqsClient, message.receiptHandle(), QUEUE_URL);
-                        continue;
-                    }
-                    try{
-                        setIds = jsonResponse.getBoolean("setIds");
-                    }catch(JSONException e){}   
-
-                    logger.info("URL: " + url);
-                    logger.info("Set IDs: " + setIds);
-
-                    for(int i=0; i<testCases.length(); i++) {
-                        String testCase = testCases.getString(i);
-                        logger.info("Test case: " + testCase);
-                        if( "solve-captcha".equals(testCase.toString().trim())){
-                            logger.info("Solving captcha: " + testCase);
-                            command = new SolveCaptcha(CommandParams.builder()
-                                    .url(url)
-                                    .testCase("""
-                                            Human: Answer the following captcha. Your answer should output ONLY the value of the captcha
-                                            Assitant: The answer to the captcha is 
-                                    """)
-                                .build());
+                    pageRepresentation = PageRepresentation.valueOf(jsonResponse.getString("pageRepresentation").trim().toUpperCase());
+                }catch(IllegalArgumentException | JSONException e){
+                    logger.warn("Unknown pageRepresentation, using "+pageRepresentation+". Msg: "+e.getMessage());
+                }
+            }
+
+            logger.info("URL: " + url);
+            logger.info("Set IDs: " + setIds);
+            logger.info("Page representation: " + pageRepresentation);
+
+            String reply = runTestCases(id, url, testCases, setIds, pageRepresentation);
+            if( reply != null ){
+                sink.publish(reply);
+            }else{
+                logger.error("Did not execute any test cases");
+            }
+
+            source.complete(job);
+            logger.info("Processed and completed message with handle: " + job.getHandle());
+
+        }catch(Exception e){
+            logger.error("Error parsing JSON message: "+e.getMessage(), e);
+            source.abandon(job);
+        }
+    }
+
+    /**
+     * Runs the chain of test cases of one job.
+     * @return the reply to publish, or null when no test case was executed
+     */
+    protected String runTestCases(String id, String url, JSONArray testCases, Boolean setIds, PageRepresentation pageRepresentation) throws Exception {
+
+        Command command = null;
+        try{
+            for(int i=0; i<testCases.length(); i++) {
+                String testCase = testCases.getString(i);
+                logger.info("Test case: " + testCase);
+                if( "solve-captcha".equals(testCase.toString().trim())){
+                    logger.info("Solving captcha: " + testCase);
+                    command = new SolveCaptcha(CommandParams.builder()
+                            .url(url)
+                            .testCase("""
+                                    Human: Answer the following captcha. Your answer should output ONLY the value of the captcha
+                                    Assitant: The answer to the captcha is 
+                            """)
+                        .build());
+                }else{
+                    if( i == 0 ){
+                        logger.info("Executing Navigate command");
+                        command = new Navigate(commandParams(url, testCase, setIds, pageRepresentation));
+                    }else{
+                        if( command != null){
+                            logger.info("Chaining command. AndThen...");
+                            command.andThen( new Navigate(commandParams(url, testCase, setIds, pageRepresentation)));
                         }else{
-                            if( i == 0 ){
-                                logger.info("Executing Navigate command");
-                                command = new Navigate(CommandParams.getDefaultUseS3(url, testCase.toString(), setIds));
-                            }else{
-                                if( command != null){
-                                    logger.info("Chaining command. AndThen...");
-                                    command.andThen( new Navigate(CommandParams.getDefaultUseS3(url, testCase.toString(), setIds)));
-                                }else{
-                                    logger.error("Should never have reached this line");
-                                }
-                            }
-                        }
-                        if(i == 0){
-                            if( command != null ){
-                                command.execute();
-                            }else{
-                                logger.error("Should never have reached this line 2");
-                            }
+                            logger.error("Should never have reached this line");
                         }
                     }
+                }
+                if(i == 0){
                     if( command != null ){
-
-                        putSqs(sqsClient, REPLY_QUEUE_URL, String.format("""
-                            {
-                                "status": "%s",
-                                "id": "%s",
-                                "s3Prefix": "%s"
-                            }
-                        """, command.status(), id,((AbstractNavigation)command).getS3BucketName() +"/"+ ((AbstractNavigation)command).getS3Prefix()));
+                        command.execute();
                     }else{
-                        logger.error("Did not execute any test cases");
+                        logger.error("Should never have reached this line 2");
                     }
-
-                    deleteSqsMessage(sqsClient, message.receiptHandle(), QUEUE_URL);
-                    logger.info("Processed and deleted message with receipt handle: " + message.receiptHandle());
-        
-                }catch(Exception e){
-                    if( command!= null ){
-                        try{
-                            command.tearDown();
-                        }catch(Exception ex){
-                            logger.error("Error tearing down: "+ex.getMessage(), ex);
-                        }
-                    }
-                    logger.error("Error parsing JSON message: "+e.getMessage(), e);
+                }
+            }
+            if( command == null ){
+                return null;
+            }
+            JSONObject reply = new JSONObject()
+                .put("status", command.status())
+                .put("id", id);
+            if( useS3 ){
+                reply.put("s3Prefix", ((AbstractNavigation)command).getS3BucketName() +"/"+ ((AbstractNavigation)command).getS3Prefix());
+            }
+            return reply.toString();
+        }finally{
+            //each worker owns its browser session. Release it so the next job can be admitted
+            if( command!= null ){
+                try{
+                    command.tearDown();
+                }catch(Exception ex){
+                    logger.error("Error tearing down: "+ex.getMessage(), ex);
                 }
             }
         }
     }
 
+    private CommandParams commandParams(String url, String testCase, Boolean setIds, PageRepresentation pageRepresentation) {
 
-    private List<Message> readSqs(SqsClient sqsClient, final String QUEUE_URL) {
-
-
-        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
-                .queueUrl(QUEUE_URL)
-                .maxNumberOfMessages(1)                
-                // .waitTimeSeconds(20)
-                .attributeNames(List.of(QueueAttributeName.CREATED_TIMESTAMP))
-                .messageAttributeNames("All")
-                .build();
-                
-        ReceiveMessageResponse receiveMessageResponse = sqsClient.receiveMessage(receiveMessageRequest);
-        logger.info("SQS responded with " + receiveMessageResponse);
-
-        return receiveMessageResponse.messages();
+        if( useS3 ){
+            return CommandParams.getDefaultUseS3(url, testCase, setIds, pageRepresentation);
+        }
+        return CommandParams.getDefault(url, testCase, setIds, pageRepresentation);
     }
 
-    private Boolean putSqs(SqsClient sqsClient, final String QUEUE_URL, final String payload){
+    /**
+     * Closes the sink and the source once, whether the jobs ran out or the task is stopped.
+     */
+    private void close() {
 
+        if( !closed.compareAndSet(false, true) ){
+            return;
+        }
         try{
-            logger.info("Sending messsage to queue "+QUEUE_URL+" with payload "+payload);
-            sqsClient.sendMessage( builder->{
-                builder.queueUrl(QUEUE_URL);
-                builder.messageBody(payload);
-            });
+            sink.close();
         }catch(Exception e){
-            logger.error("Error sending message to SQS: "+e.getMessage(), e);
-            return Boolean.FALSE;
+            logger.error("Error closing result sink: "+e.getMessage(), e);
         }
-        return Boolean.TRUE;
+        source.close();
     }
-
-    private void deleteSqsMessage(SqsClient sqsClient, String receiptHandle, final String QUEUE_URL) {
-        logger.info("Deleting message " + receiptHandle);
-
-        DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
-                .queueUrl(QUEUE_URL)
-                .receiptHandle(receiptHandle)
-                .build();
-
-        sqsClient.deleteMessage(deleteMessageRequest);
-    }    
 }
@@ -0,0 +1,13 @@
+package com.example.selenium.sqs;
+
+/**
+ * Where {@link MessageHandler} publishes the result of each job.
+ */
+public interface ResultSink extends AutoCloseable {
+
+    public abstract void publish(String payload);
+
+    @Override
+    public default void close() {
+    }
+}
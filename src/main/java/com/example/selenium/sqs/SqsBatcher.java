@@ -0,0 +1,342 @@
+package com.example.selenium.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+
+/**
+ * Buffers deletes, replies and releases and sends them to SQS with DeleteMessageBatch, SendMessageBatch and
+ * ChangeMessageVisibilityBatch.
+ * A queue is flushed as soon as it holds {@link #MAX_BATCH} entries or when the flush interval expires,
+ * whichever happens first. Entries of a call that failed are retried on the next flush.
+ *
+ * A delete waits for the replies sent by the same thread since its previous delete or release, the replies of
+ * the message it removes: a message is never removed from the queue before its reply left this process. When SQS
+ * does not take one of those replies, the delete is dropped and the message is received again.
+ */
+public class SqsBatcher implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(SqsBatcher.class);
+
+    /** Maximum number of entries SQS accepts in a single batch call */
+    public static final int MAX_BATCH = 10;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final SqsClient sqsClient;
+    private final Map<String, List<Pending<DeleteMessageBatchRequestEntry>>> deletes = new HashMap<>();
+    private final Map<String, List<Pending<SendMessageBatchRequestEntry>>> sends = new HashMap<>();
+    private final Map<String, List<Pending<ChangeMessageVisibilityBatchRequestEntry>>> releases = new HashMap<>();
+    //replies of the message the thread works on
+    private final ThreadLocal<List<Pending<SendMessageBatchRequestEntry>>> replies = ThreadLocal.withInitial(ArrayList::new);
+    //one flush at a time, so the replies drained by a flush are sent before the deletes it drains after them
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong entryIds = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    public SqsBatcher(SqsClient sqsClient, Duration flushInterval) {
+
+        this.sqsClient = sqsClient;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sqs-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void delete(String queueUrl, String receiptHandle) {
+
+        DeleteMessageBatchRequestEntry entry = DeleteMessageBatchRequestEntry.builder()
+            .id(nextId())
+            .receiptHandle(receiptHandle)
+            .build();
+        if( add(deletes, queueUrl, new Pending<>(entry, takeReplies())) ){
+            flushLock.lock();
+            try{
+                //replies go out before the messages they answer are deleted
+                flushAllSends();
+                flushAllDeletes();
+            }finally{
+                flushLock.unlock();
+            }
+        }
+    }
+
+    public void send(String queueUrl, String body) {
+
+        SendMessageBatchRequestEntry entry = SendMessageBatchRequestEntry.builder()
+            .id(nextId())
+            .messageBody(body)
+            .build();
+        Pending<SendMessageBatchRequestEntry> pending = new Pending<>(entry, List.of());
+        replies.get().add(pending);
+        if( add(sends, queueUrl, pending) ){
+            flushLock.lock();
+            try{
+                flushAllSends();
+            }finally{
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes a message visible again right away, so a job that failed is retried without waiting for the end of
+     * its visibility timeout.
+     */
+    public void release(String queueUrl, String receiptHandle) {
+
+        ChangeMessageVisibilityBatchRequestEntry entry = ChangeMessageVisibilityBatchRequestEntry.builder()
+            .id(nextId())
+            .receiptHandle(receiptHandle)
+            .visibilityTimeout(0)
+            .build();
+        takeReplies();
+        if( add(releases, queueUrl, new Pending<>(entry, List.of())) ){
+            flushLock.lock();
+            try{
+                flushAllReleases();
+            }finally{
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends everything that is buffered. Replies are sent before deletes, deletes whose replies are still buffered
+     * wait for the next flush.
+     */
+    public void flush() {
+
+        flushLock.lock();
+        try{
+            flushAllSends();
+            flushAllReleases();
+            flushAllDeletes();
+        }catch(Exception e){
+            logger.error("Error flushing SQS batches: "+e.getMessage(), e);
+        }finally{
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the scheduled flushes and flushes until the buffers are empty or their entries ran out of attempts.
+     */
+    @Override
+    public void close() {
+
+        scheduler.shutdown();
+        for( int attempt=0; attempt<MAX_ATTEMPTS && !isEmpty(); attempt++ ){
+            flush();
+        }
+        if( !isEmpty() ){
+            logger.error("Closing SQS batcher with unsent entries, their messages will be received again");
+        }
+    }
+
+    private synchronized boolean isEmpty() {
+        return sends.isEmpty() && releases.isEmpty() && deletes.isEmpty();
+    }
+
+    private List<Pending<SendMessageBatchRequestEntry>> takeReplies() {
+
+        List<Pending<SendMessageBatchRequestEntry>> taken = List.copyOf(replies.get());
+        replies.remove();
+        return taken;
+    }
+
+    private void flushAllSends() {
+
+        for( Map.Entry<String, List<Pending<SendMessageBatchRequestEntry>>> e : drain(sends).entrySet() ){
+            for( List<Pending<SendMessageBatchRequestEntry>> batch : partition(e.getValue()) ){
+                flushSends(e.getKey(), batch);
+            }
+        }
+    }
+
+    private void flushAllReleases() {
+
+        for( Map.Entry<String, List<Pending<ChangeMessageVisibilityBatchRequestEntry>>> e : drain(releases).entrySet() ){
+            for( List<Pending<ChangeMessageVisibilityBatchRequestEntry>> batch : partition(e.getValue()) ){
+                flushReleases(e.getKey(), batch);
+            }
+        }
+    }
+
+    /**
+     * Deletes the messages whose replies were sent. The others wait for their replies, or are dropped when one of
+     * their replies was given up.
+     */
+    private void flushAllDeletes() {
+
+        for( Map.Entry<String, List<Pending<DeleteMessageBatchRequestEntry>>> e : drain(deletes).entrySet() ){
+            List<Pending<DeleteMessageBatchRequestEntry>> ready = new ArrayList<>();
+            List<Pending<DeleteMessageBatchRequestEntry>> waiting = new ArrayList<>();
+            for( Pending<DeleteMessageBatchRequestEntry> pending : e.getValue() ){
+                if( pending.replies.stream().anyMatch(r -> r.state == State.GIVEN_UP) ){
+                    logger.error("Reply of message "+pending.entry.receiptHandle()+" was not sent, leaving the message on the queue");
+                    pending.state = State.GIVEN_UP;
+                }else if( pending.replies.stream().allMatch(r -> r.state == State.SENT) ){
+                    ready.add(pending);
+                }else{
+                    waiting.add(pending);
+                }
+            }
+            if( !waiting.isEmpty() ){
+                synchronized(this){
+                    deletes.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).addAll(waiting);
+                }
+            }
+            for( List<Pending<DeleteMessageBatchRequestEntry>> batch : partition(ready) ){
+                flushDeletes(e.getKey(), batch);
+            }
+        }
+    }
+
+    private void flushSends(String queueUrl, List<Pending<SendMessageBatchRequestEntry>> batch) {
+
+        logger.info("Sending "+batch.size()+" messages to queue "+queueUrl);
+        try{
+            SendMessageBatchResponse response = sqsClient.sendMessageBatch(builder -> builder
+                .queueUrl(queueUrl)
+                .entries(batch.stream().map(p -> p.entry).toList()));
+            retryFailed(sends, queueUrl, batch, response.failed(), p -> p.entry.id());
+        }catch(Exception e){
+            logger.error("Error sending message batch to SQS: "+e.getMessage(), e);
+            retry(sends, queueUrl, batch);
+        }
+    }
+
+    private void flushDeletes(String queueUrl, List<Pending<DeleteMessageBatchRequestEntry>> batch) {
+
+        logger.info("Deleting "+batch.size()+" messages from queue "+queueUrl);
+        try{
+            DeleteMessageBatchResponse response = sqsClient.deleteMessageBatch(builder -> builder
+                .queueUrl(queueUrl)
+                .entries(batch.stream().map(p -> p.entry).toList()));
+            retryFailed(deletes, queueUrl, batch, response.failed(), p -> p.entry.id());
+        }catch(Exception e){
+            logger.error("Error deleting message batch from SQS: "+e.getMessage(), e);
+            retry(deletes, queueUrl, batch);
+        }
+    }
+
+    private void flushReleases(String queueUrl, List<Pending<ChangeMessageVisibilityBatchRequestEntry>> batch) {
+
+        logger.info("Releasing "+batch.size()+" messages of queue "+queueUrl);
+        try{
+            ChangeMessageVisibilityBatchResponse response = sqsClient.changeMessageVisibilityBatch(builder -> builder
+                .queueUrl(queueUrl)
+                .entries(batch.stream().map(p -> p.entry).toList()));
+            retryFailed(releases, queueUrl, batch, response.failed(), p -> p.entry.id());
+        }catch(Exception e){
+            logger.error("Error releasing message batch in SQS: "+e.getMessage(), e);
+            retry(releases, queueUrl, batch);
+        }
+    }
+
+    private <T> void retryFailed(Map<String, List<Pending<T>>> buffer, String queueUrl, List<Pending<T>> batch,
+            List<BatchResultErrorEntry> failed, Function<Pending<T>, String> id) {
+
+        List<Pending<T>> retry = new ArrayList<>();
+        for( BatchResultErrorEntry error : failed ){
+            logger.error(String.format("SQS rejected entry %s on %s: %s %s", error.id(), queueUrl, error.code(), error.message()));
+            Pending<T> pending = batch.stream().filter(p -> id.apply(p).equals(error.id())).findFirst().orElse(null);
+            if( pending == null ){
+                continue;
+            }
+            if( Boolean.TRUE.equals(error.senderFault()) ){
+                pending.state = State.GIVEN_UP;
+            }else{
+                retry.add(pending);
+            }
+        }
+        for( Pending<T> pending : batch ){
+            if( pending.state == State.BUFFERED && !retry.contains(pending) ){
+                pending.state = State.SENT;
+            }
+        }
+        retry(buffer, queueUrl, retry);
+    }
+
+    private <T> void retry(Map<String, List<Pending<T>>> buffer, String queueUrl, List<Pending<T>> batch) {
+
+        for( Pending<T> pending : batch ){
+            if( ++pending.attempts >= MAX_ATTEMPTS ){
+                logger.error("Giving up on SQS entry after "+pending.attempts+" attempts: "+pending.entry);
+                pending.state = State.GIVEN_UP;
+                continue;
+            }
+            synchronized(this){
+                buffer.computeIfAbsent(queueUrl, k -> new ArrayList<>()).add(pending);
+            }
+        }
+    }
+
+    /**
+     * @return whether the queue holds a full batch
+     */
+    private synchronized <T> boolean add(Map<String, List<Pending<T>>> buffer, String queueUrl, Pending<T> pending) {
+
+        List<Pending<T>> entries = buffer.computeIfAbsent(queueUrl, k -> new ArrayList<>());
+        entries.add(pending);
+        return entries.size() >= MAX_BATCH;
+    }
+
+    private synchronized <T> Map<String, List<Pending<T>>> drain(Map<String, List<Pending<T>>> buffer) {
+
+        Map<String, List<Pending<T>>> drained = new HashMap<>(buffer);
+        buffer.clear();
+        return drained;
+    }
+
+    private static <T> List<List<T>> partition(List<T> entries) {
+
+        List<List<T>> batches = new ArrayList<>();
+        for( int i=0; i<entries.size(); i+=MAX_BATCH ){
+            batches.add(entries.subList(i, Math.min(entries.size(), i+MAX_BATCH)));
+        }
+        return batches;
+    }
+
+    private String nextId() {
+        return Long.toString(entryIds.incrementAndGet());
+    }
+
+    private enum State { BUFFERED, SENT, GIVEN_UP }
+
+    private static class Pending<T> {
+
+        private final T entry;
+        //replies that must be sent first
+        private final List<Pending<SendMessageBatchRequestEntry>> replies;
+        private int attempts = 0;
+        private volatile State state = State.BUFFERED;
+
+        private Pending(T entry, List<Pending<SendMessageBatchRequestEntry>> replies) {
+            this.entry = entry;
+            this.replies = replies;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.selenium.sqs;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.selenium.AppInfra;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
+import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
+
+/**
+ * Reads jobs from the SQS queue created by {@link AppInfra}. Received messages are kept invisible by a
+ * {@link VisibilityHeartbeat} until they are completed or abandoned, and deletes, replies and releases of
+ * abandoned messages are sent in batches by a shared {@link SqsBatcher}.
+ */
+public class SqsJobSource implements JobSource {
+
+    private static final Logger logger = LogManager.getLogger(SqsJobSource.class);
+
+    public static final String BATCH_FLUSH_MILLIS_PROPERTY = "test-automation.batch.flush.ms";
+    /** Maximum long polling time supported by SQS */
+    private static final int MAX_WAIT_SECONDS = 20;
+
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+    private final SqsBatcher batcher;
+    private final VisibilityHeartbeat heartbeat;
+
+    public SqsJobSource(SqsClient sqsClient, String queueUrl) {
+
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+        this.batcher = new SqsBatcher(sqsClient, Duration.ofMillis(Long.getLong(BATCH_FLUSH_MILLIS_PROPERTY, 1000L)));
+        this.heartbeat = VisibilityHeartbeat.fromSystemProperties(sqsClient, queueUrl).start();
+        logger.info("Reading from queue "+queueUrl);
+    }
+
+    /**
+     * Creates a source for the queue whose url is stored in the Parameter Store.
+     */
+    public static SqsJobSource fromParameterStore() {
+
+        return new SqsJobSource(SqsClient.builder().build(), getParameter("queue-url"));
+    }
+
+    /**
+     * @return a sink that replies to the queue whose url is stored in the Parameter Store. Replies share
+     * the batcher of this source so they always leave before the messages they answer are deleted, when they are
+     * published by the thread that completes the job.
+     */
+    public ResultSink replySink() {
+
+        final String replyQueueUrl = getParameter("queue-reply-url");
+        logger.info("Will reply to queue "+replyQueueUrl);
+        return payload -> {
+            logger.info("Sending messsage to queue "+replyQueueUrl+" with payload "+payload);
+            batcher.send(replyQueueUrl, payload);
+        };
+    }
+
+    @Override
+    public List<Job> receive(int max, Duration maxWait) {
+
+        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(Math.min(max, SqsBatcher.MAX_BATCH))
+                .waitTimeSeconds((int)Math.min(maxWait.getSeconds(), MAX_WAIT_SECONDS))
+                .attributeNames(List.of(QueueAttributeName.CREATED_TIMESTAMP))
+                .messageAttributeNames("All")
+                .build();
+
+        ReceiveMessageResponse receiveMessageResponse = sqsClient.receiveMessage(receiveMessageRequest);
+        logger.info("SQS responded with " + receiveMessageResponse);
+
+        //received messages are in flight until a worker completes or abandons them
+        receiveMessageResponse.messages().forEach(m -> heartbeat.track(m.receiptHandle()));
+        return receiveMessageResponse.messages().stream()
+            .map(m -> new Job(m.receiptHandle(), m.body()))
+            .toList();
+    }
+
+    @Override
+    public void complete(Job job) {
+
+        logger.info("Deleting message " + job.getHandle());
+        heartbeat.stop(job.getHandle());
+        batcher.delete(queueUrl, job.getHandle());
+    }
+
+    @Override
+    public void abandon(Job job) {
+
+        //visible again right away instead of at the end of its extended timeout
+        logger.info("Releasing message " + job.getHandle());
+        heartbeat.stop(job.getHandle());
+        batcher.release(queueUrl, job.getHandle());
+    }
+
+    @Override
+    public void close() {
+        heartbeat.close();
+        batcher.close();
+    }
+
+    private static String getParameter(String name) {
+
+        SsmClient ssmClient = SsmClient.builder().build();
+        GetParameterRequest getParameterRequest = GetParameterRequest.builder()
+            .name("/"+AppInfra.Constants.APP_NAME+"/"+name)
+            .build();
+        GetParameterResponse getParameterResponse = ssmClient.getParameter(getParameterRequest);
+        return getParameterResponse.parameter().value();
+    }
+}
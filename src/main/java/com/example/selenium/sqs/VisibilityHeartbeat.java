@@ -0,0 +1,125 @@
+package com.example.selenium.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+
+/**
+ * Keeps in-flight messages invisible while their test cases run. Every interval the visibility timeout of
+ * all tracked messages is extended with ChangeMessageVisibilityBatch, 10 receipt handles per call.
+ * A message stops being extended when it is deleted or abandoned, or when SQS rejects its receipt handle.
+ */
+public class VisibilityHeartbeat implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(VisibilityHeartbeat.class);
+
+    public static final String VISIBILITY_TIMEOUT_PROPERTY = "test-automation.visibility.timeout.s";
+    public static final String HEARTBEAT_PROPERTY = "test-automation.heartbeat.s";
+
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+    private final Duration interval;
+    private final Duration extension;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    public VisibilityHeartbeat(SqsClient sqsClient, String queueUrl, Duration interval, Duration extension) {
+
+        if( interval.compareTo(extension) >= 0 ){
+            throw new IllegalArgumentException("Heartbeat interval ("+interval+") must be shorter than the visibility extension ("+extension+")");
+        }
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+        this.interval = interval;
+        this.extension = extension;
+    }
+
+    public static VisibilityHeartbeat fromSystemProperties(SqsClient sqsClient, String queueUrl) {
+
+        return new VisibilityHeartbeat(sqsClient, queueUrl,
+            Duration.ofSeconds(Long.getLong(HEARTBEAT_PROPERTY, 120L)),
+            Duration.ofSeconds(Long.getLong(VISIBILITY_TIMEOUT_PROPERTY, 600L)));
+    }
+
+    public synchronized VisibilityHeartbeat start() {
+
+        if( scheduler == null ){
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "sqs-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::beat, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    public void track(String receiptHandle) {
+        inFlight.add(receiptHandle);
+    }
+
+    /**
+     * Stops extending the message. Called once the message is deleted or when its processing is abandoned, in which
+     * case the job source releases it right away with a visibility timeout of 0.
+     */
+    public void stop(String receiptHandle) {
+        inFlight.remove(receiptHandle);
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Extends the visibility timeout of every tracked message.
+     */
+    void beat() {
+
+        List<String> handles = new ArrayList<>(inFlight);
+        for( int i=0; i<handles.size(); i+=SqsBatcher.MAX_BATCH ){
+            List<String> batch = handles.subList(i, Math.min(handles.size(), i+SqsBatcher.MAX_BATCH));
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for( int j=0; j<batch.size(); j++ ){
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(Integer.toString(j))
+                    .receiptHandle(batch.get(j))
+                    .visibilityTimeout((int)extension.getSeconds())
+                    .build());
+            }
+            try{
+                ChangeMessageVisibilityBatchResponse response = sqsClient.changeMessageVisibilityBatch(builder -> builder
+                    .queueUrl(queueUrl)
+                    .entries(entries));
+                for( BatchResultErrorEntry error : response.failed() ){
+                    String receiptHandle = batch.get(Integer.parseInt(error.id()));
+                    logger.error(String.format("Could not extend visibility of message %s: %s %s", receiptHandle, error.code(), error.message()));
+                    inFlight.remove(receiptHandle);
+                }
+                logger.info(String.format("Extended visibility of %d messages by %d seconds", batch.size()-response.failed().size(), extension.getSeconds()));
+            }catch(Exception e){
+                logger.error("Error extending message visibility. Will try again on the next heartbeat. Msg: "+e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if( scheduler != null ){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.selenium.sqs;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded pool of workers fed by the receive loop of {@link MessageHandler}. Every worker runs one test
+ * (and owns its browser session) at a time.
+ *
+ * The pool never admits more sessions than the task memory allows: the number of workers is capped by
+ * (total memory - reserved memory) / memory per session, and a new job is only admitted while the free
+ * memory reported by the OS is above the memory needed by one more session.
+ */
+public class WorkerPool {
+
+    private static final Logger logger = LogManager.getLogger(WorkerPool.class);
+
+    public static final String WORKERS_PROPERTY = "test-automation.workers";
+    public static final String SESSION_MEMORY_PROPERTY = "test-automation.session.memory.mb";
+    public static final String RESERVED_MEMORY_PROPERTY = "test-automation.reserved.memory.mb";
+
+    private static final long MB = 1024L * 1024L;
+    private static final long ADMISSION_RETRY_MILLIS = 1000;
+
+    private final int size;
+    private final long sessionMemoryMb;
+    private final Semaphore slots;
+    private final AtomicInteger running = new AtomicInteger();
+    private final ExecutorService executor;
+
+    public WorkerPool(int workers, long sessionMemoryMb, long reservedMemoryMb) {
+
+        this.sessionMemoryMb = sessionMemoryMb;
+        long totalMemoryMb = totalMemory() / MB;
+        int memoryBound = (int) Math.max(1, (totalMemoryMb - reservedMemoryMb) / Math.max(1, sessionMemoryMb));
+        this.size = Math.max(1, Math.min(workers, memoryBound));
+        if( size < workers ){
+            logger.info(String.format("Requested %d workers but memory allows %d sessions (total %d MB, reserved %d MB, %d MB per session)",
+                workers, size, totalMemoryMb, reservedMemoryMb, sessionMemoryMb));
+        }
+        this.slots = new Semaphore(size);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(size, r -> {
+            Thread t = new Thread(r, "worker-"+threadCount.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        });
+        logger.info("Started worker pool with "+size+" workers");
+    }
+
+    public static WorkerPool fromSystemProperties() {
+
+        return new WorkerPool(
+            Integer.getInteger(WORKERS_PROPERTY, 1),
+            Long.getLong(SESSION_MEMORY_PROPERTY, 800L),
+            Long.getLong(RESERVED_MEMORY_PROPERTY, 1024L));
+    }
+
+    /**
+     * Blocks until a worker is free and there is enough memory for one more browser session.
+     * The caller must either {@link #submit(Runnable)} a job or {@link #release()} the slot.
+     */
+    public void acquire() throws InterruptedException {
+
+        slots.acquire();
+        while( running.get() > 0 && freeMemory() / MB < sessionMemoryMb ){
+            logger.info(String.format("Not enough free memory for another session (%d MB free, %d MB needed). %d sessions running",
+                freeMemory() / MB, sessionMemoryMb, running.get()));
+            Thread.sleep(ADMISSION_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Runs the job on a worker. The slot taken by {@link #acquire()} is released when the job finishes.
+     */
+    public void submit(Runnable job) {
+
+        running.incrementAndGet();
+        try{
+            executor.execute(() -> {
+                try{
+                    job.run();
+                }catch(Exception e){
+                    logger.error("Worker failed: "+e.getMessage(), e);
+                }finally{
+                    running.decrementAndGet();
+                    slots.release();
+                }
+            });
+        }catch(RuntimeException e){
+            running.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a slot taken by {@link #acquire()} that was not used to run a job.
+     */
+    public void release() {
+        slots.release();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int running() {
+        return running.get();
+    }
+
+    public void shutdown(long timeoutSeconds) throws InterruptedException {
+
+        executor.shutdown();
+        if( !executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS) ){
+            logger.info("Workers did not finish in "+timeoutSeconds+" seconds. Forcing shutdown");
+            executor.shutdownNow();
+        }
+    }
+
+    private static long totalMemory() {
+
+        if( ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os ){
+            return os.getTotalMemorySize();
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private static long freeMemory() {
+
+        if( ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os ){
+            return os.getFreeMemorySize();
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,154 @@
+// Outline of the accessibility tree of the page, one line per landmark, heading, live region or interactive element:
+//   <indent>role "name" value="..." [state] #id
+// Hidden subtrees are skipped and nesting only counts the nodes that are printed.
+var MAX_LINES = 3000;
+var MAX_NAME = 80;
+var MAX_VALUE = 40;
+var LANDMARKS = { banner: 1, navigation: 1, main: 1, complementary: 1, contentinfo: 1, form: 1, search: 1, region: 1, dialog: 1, alertdialog: 1 };
+var INTERACTIVE = { link: 1, button: 1, textbox: 1, searchbox: 1, checkbox: 1, radio: 1, combobox: 1, listbox: 1, option: 1,
+    menuitem: 1, menuitemcheckbox: 1, menuitemradio: 1, tab: 1, switch: 1, slider: 1, spinbutton: 1, treeitem: 1, clickable: 1 };
+var LIVE = { alert: 1, status: 1, log: 1 };
+var INPUT_ROLES = { checkbox: 'checkbox', radio: 'radio', button: 'button', submit: 'button', reset: 'button', image: 'button',
+    search: 'searchbox', number: 'spinbutton', range: 'slider', email: 'textbox', tel: 'textbox', text: 'textbox', url: 'textbox',
+    password: 'textbox', date: 'textbox', 'datetime-local': 'textbox', month: 'textbox', time: 'textbox', week: 'textbox' };
+var lines = [];
+
+function clip(text, max) {
+    text = (text || '').replace(/\s+/g, ' ').trim();
+    return text.length > max ? text.substring(0, max - 1) + '…' : text;
+}
+
+function role(el) {
+    var explicit = el.getAttribute('role');
+    if (explicit) {
+        return explicit.split(' ')[0];
+    }
+    var tag = el.tagName.toLowerCase();
+    switch (tag) {
+        case 'a': return el.hasAttribute('href') ? 'link' : (el.hasAttribute('onclick') ? 'clickable' : null);
+        case 'button': case 'summary': return 'button';
+        case 'input': return el.type === 'hidden' ? null : (INPUT_ROLES[el.type] || 'textbox');
+        case 'textarea': return 'textbox';
+        case 'select': return el.multiple || el.size > 1 ? 'listbox' : 'combobox';
+        case 'option': return 'option';
+        case 'nav': return 'navigation';
+        case 'main': return 'main';
+        case 'aside': return 'complementary';
+        case 'dialog': return 'dialog';
+        case 'form': return 'form';
+        case 'header': return el.closest('article, aside, main, nav, section') ? null : 'banner';
+        case 'footer': return el.closest('article, aside, main, nav, section') ? null : 'contentinfo';
+        case 'section': return el.hasAttribute('aria-label') || el.hasAttribute('aria-labelledby') ? 'region' : null;
+        case 'h1': case 'h2': case 'h3': case 'h4': case 'h5': case 'h6': return 'heading';
+        case 'output': return 'status';
+    }
+    if (el.isContentEditable && (!el.parentElement || !el.parentElement.isContentEditable)) {
+        return 'textbox';
+    }
+    return el.hasAttribute('onclick') ? 'clickable' : null;
+}
+
+function name(el, role) {
+    var labelledBy = el.getAttribute('aria-labelledby');
+    if (labelledBy) {
+        var text = labelledBy.split(/\s+/).map(function (id) {
+            var label = document.getElementById(id);
+            return label ? label.textContent : '';
+        }).join(' ');
+        if (text.trim()) {
+            return text;
+        }
+    }
+    if (el.getAttribute('aria-label')) {
+        return el.getAttribute('aria-label');
+    }
+    if (el.labels && el.labels.length) {
+        return Array.prototype.map.call(el.labels, function (label) { return label.textContent; }).join(' ');
+    }
+    if (role === 'textbox' || role === 'searchbox' || role === 'combobox' || role === 'spinbutton') {
+        return el.getAttribute('placeholder') || el.getAttribute('title') || el.getAttribute('name') || '';
+    }
+    if (el.tagName === 'INPUT' && (el.type === 'submit' || el.type === 'button' || el.type === 'reset')) {
+        return el.value;
+    }
+    if (el.tagName === 'INPUT' && el.type === 'image') {
+        return el.alt || el.title;
+    }
+    if (LANDMARKS[role] && role !== 'dialog') {
+        return '';
+    }
+    var text = el.innerText;
+    if (!text || !text.trim()) {
+        var img = el.querySelector('img[alt]');
+        text = img ? img.alt : '';
+    }
+    return text || el.getAttribute('title') || '';
+}
+
+function value(el, role) {
+    if (el.tagName === 'OPTION') {
+        return el.value;
+    }
+    if (el.tagName === 'SELECT') {
+        return el.selectedIndex >= 0 ? el.options[el.selectedIndex].text : '';
+    }
+    if (role === 'checkbox' || role === 'radio' || el.tagName === 'BUTTON' || el.type === 'submit' || el.type === 'button') {
+        return null;
+    }
+    if (el.tagName === 'INPUT' || el.tagName === 'TEXTAREA') {
+        return el.type === 'password' && el.value ? '***' : el.value;
+    }
+    return el.getAttribute('aria-valuenow');
+}
+
+function states(el, role) {
+    var states = [];
+    if (el.disabled || el.getAttribute('aria-disabled') === 'true') states.push('disabled');
+    if (el.checked || el.getAttribute('aria-checked') === 'true') states.push('checked');
+    if (el.tagName === 'OPTION' ? el.selected : el.getAttribute('aria-selected') === 'true') states.push('selected');
+    if (el.getAttribute('aria-expanded')) states.push(el.getAttribute('aria-expanded') === 'true' ? 'expanded' : 'collapsed');
+    if (el.getAttribute('aria-pressed') === 'true') states.push('pressed');
+    if (el.required) states.push('required');
+    if (el.readOnly) states.push('readonly');
+    if (role === 'heading') states.push('level=' + (el.getAttribute('aria-level') || el.tagName.substring(1)));
+    return states;
+}
+
+function hidden(el) {
+    if (el.hidden || el.getAttribute('aria-hidden') === 'true' || el.tagName === 'SCRIPT' || el.tagName === 'STYLE' || el.tagName === 'TEMPLATE') {
+        return true;
+    }
+    var style = window.getComputedStyle(el);
+    return style.display === 'none' || style.visibility === 'hidden' || style.visibility === 'collapse';
+}
+
+function walk(el, depth) {
+    if (lines.length >= MAX_LINES || hidden(el)) {
+        return;
+    }
+    var live = el.getAttribute('aria-live');
+    var r = role(el) || (live === 'polite' || live === 'assertive' ? 'status' : null);
+    var shown = r && (LANDMARKS[r] || INTERACTIVE[r] || LIVE[r] || r === 'heading');
+    if (shown) {
+        var line = new Array(depth + 1).join('  ') + r;
+        var n = clip(name(el, r), MAX_NAME);
+        if (n) line += ' "' + n.replace(/"/g, '\'') + '"';
+        var v = value(el, r);
+        if (v) line += ' value="' + clip(v, MAX_VALUE).replace(/"/g, '\'') + '"';
+        var s = states(el, r);
+        if (s.length) line += ' [' + s.join(', ') + ']';
+        if (el.id) line += ' #' + el.id;
+        lines.push(line);
+        depth++;
+        // the name already describes the content of leaf controls
+        if (INTERACTIVE[r] && r !== 'listbox' && r !== 'combobox') {
+            return;
+        }
+    }
+    for (var child = el.firstElementChild; child; child = child.nextElementSibling) {
+        walk(child, depth);
+    }
+}
+
+walk(document.body, 0);
+return lines.join('\n');
@@ -0,0 +1,17 @@
+// Async script: resolves true once the document is complete, no request is in flight and nothing changed
+// for the quiet period. Resolves false when the timeout expires first.
+var quietMillis = arguments[0];
+var timeoutMillis = arguments[1];
+var callback = arguments[arguments.length - 1];
+var start = Date.now();
+(function check() {
+    var state = window.__testAutomationReadiness;
+    var now = Date.now();
+    if (document.readyState === 'complete' && state && state.inflight === 0 && now - state.last >= quietMillis) {
+        callback(true);
+    } else if (now - start >= timeoutMillis) {
+        callback(false);
+    } else {
+        setTimeout(check, Math.min(50, quietMillis));
+    }
+})();
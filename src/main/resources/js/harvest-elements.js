@@ -0,0 +1,104 @@
+// Collects the elements the model can interact with in a single pass over the DOM.
+// arguments[0]: when true, elements without an id are kept and get one derived from their position and attributes.
+// Returns [{e: element, t: type, id: id, g: generated}] grouped as buttons, inputs, anchors, textareas,
+// selects, other elements with an onclick handler, other elements with an interactive role and spans, each group
+// in document order.
+var allElements = arguments[0];
+var buckets = { button: [], input: [], a: [], textarea: [], select: [], onclick: [], role: [], span: [] };
+var types = { button: 'clickable', input: 'input', a: 'clickable', textarea: 'input', select: 'input', onclick: 'clickable', span: 'clickable' };
+// roles listed as interactive by accessibility-outline.js
+var ROLES = { link: 'clickable', button: 'clickable', checkbox: 'clickable', radio: 'clickable', option: 'clickable',
+    menuitem: 'clickable', menuitemcheckbox: 'clickable', menuitemradio: 'clickable', tab: 'clickable', switch: 'clickable',
+    treeitem: 'clickable', slider: 'input', spinbutton: 'input', textbox: 'input', searchbox: 'input', combobox: 'input', listbox: 'clickable' };
+
+function isDisplayed(el, style) {
+    if (style.display === 'none' || style.visibility === 'hidden' || style.visibility === 'collapse' || style.opacity === '0') {
+        return false;
+    }
+    if (el.tagName === 'INPUT' && el.type === 'hidden') {
+        return false;
+    }
+    if (el.checkVisibility && !el.checkVisibility({ checkOpacity: true, checkVisibilityCSS: true })) {
+        return false;
+    }
+    var rect = el.getBoundingClientRect();
+    return rect.width > 0 && rect.height > 0;
+}
+
+// FNV-1a 32 bits, same as HtmlElement.deriveId
+function hash(text) {
+    var h = 0x811c9dc5;
+    for (var i = 0; i < text.length; i++) {
+        h ^= text.charCodeAt(i);
+        h = Math.imul(h, 0x01000193);
+    }
+    return (h >>> 0).toString(16).padStart(8, '0');
+}
+
+// Path from the closest ancestor with an id (or the root), plus the attributes that identify the element.
+// It does not depend on the text or the state of the element, so it survives re-renders of the same markup.
+function signature(el) {
+    var path = [];
+    for (var node = el; node && node.nodeType === 1; node = node.parentElement) {
+        if (node !== el && node.id) {
+            path.push('#' + node.id);
+            break;
+        }
+        var index = 1;
+        for (var sibling = node.previousElementSibling; sibling; sibling = sibling.previousElementSibling) {
+            if (sibling.tagName === node.tagName) {
+                index++;
+            }
+        }
+        path.push(node.tagName.toLowerCase() + '[' + index + ']');
+    }
+    var attributes = ['name', 'type', 'role', 'aria-label', 'placeholder', 'title', 'href'].map(function (name) {
+        return name + '=' + (el.getAttribute(name) || '');
+    });
+    return path.reverse().join('/') + '|' + attributes.join('|');
+}
+
+var used = {};
+function generateId(el) {
+    var base = hash(signature(el));
+    var id = base;
+    for (var n = 2; used[id] || document.getElementById(id); n++) {
+        id = base + '-' + n;
+    }
+    used[id] = true;
+    return id;
+}
+
+var all = document.getElementsByTagName('*');
+for (var i = 0; i < all.length; i++) {
+    var el = all[i];
+    var tag = el.tagName.toLowerCase();
+    var bucket = buckets[tag] ? tag : null;
+    var onclick = el.hasAttribute('onclick') && tag !== 'button' && tag !== 'a' && tag !== 'input';
+    var role = !bucket && !onclick && el.hasAttribute('role') ? ROLES[el.getAttribute('role').split(' ')[0]] : null;
+    if (!bucket && !onclick && !role) {
+        continue;
+    }
+    if (el.matches(':disabled') || !isDisplayed(el, window.getComputedStyle(el))) {
+        continue;
+    }
+    var id = el.id;
+    var generated = false;
+    if (!id) {
+        if (!allElements) {
+            continue;
+        }
+        id = el.id = generateId(el);
+        generated = true;
+    }
+    if (bucket) {
+        buckets[bucket].push({ e: el, t: types[bucket], id: id, g: generated });
+    }
+    if (onclick) {
+        buckets.onclick.push({ e: el, t: types.onclick, id: id, g: generated });
+    }
+    if (role) {
+        buckets.role.push({ e: el, t: role, id: id, g: generated });
+    }
+}
+return [].concat(buckets.button, buckets.input, buckets.a, buckets.textarea, buckets.select, buckets.onclick, buckets.role, buckets.span);
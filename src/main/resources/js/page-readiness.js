@@ -0,0 +1,38 @@
+// Tracks DOM mutations and in-flight requests so the test can tell when the page settled.
+// Installed before any page script runs (CDP) and injected again on demand, so it must be idempotent.
+(function () {
+    if (window.__testAutomationReadiness) {
+        return;
+    }
+    var state = window.__testAutomationReadiness = { inflight: 0, last: Date.now() };
+    function touch() {
+        state.last = Date.now();
+    }
+    function done() {
+        state.inflight = Math.max(0, state.inflight - 1);
+        touch();
+    }
+
+    new MutationObserver(touch).observe(document, { subtree: true, childList: true, attributes: true, characterData: true });
+
+    if (window.fetch) {
+        var fetch = window.fetch;
+        window.fetch = function () {
+            state.inflight++;
+            touch();
+            return fetch.apply(this, arguments).finally(done);
+        };
+    }
+    var send = XMLHttpRequest.prototype.send;
+    XMLHttpRequest.prototype.send = function () {
+        state.inflight++;
+        touch();
+        this.addEventListener('loadend', done);
+        return send.apply(this, arguments);
+    };
+    // images, scripts, stylesheets and other subresources
+    try {
+        new PerformanceObserver(touch).observe({ type: 'resource' });
+    } catch (e) {
+    }
+})();
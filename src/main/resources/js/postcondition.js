@@ -0,0 +1,19 @@
+// Post-condition of a planned step. arguments[0] is the type of check, arguments[1] its value:
+//   element: an element with that id is displayed
+//   text:    the text is visible in the page
+var type = arguments[0];
+var value = arguments[1];
+if (type === 'element') {
+    var el = document.getElementById(value);
+    if (!el) {
+        return false;
+    }
+    var rect = el.getBoundingClientRect();
+    var style = window.getComputedStyle(el);
+    return rect.width > 0 && rect.height > 0 && style.visibility !== 'hidden';
+}
+if (type === 'text') {
+    var normalize = function (text) { return (text || '').replace(/\s+/g, ' ').toLowerCase(); };
+    return normalize(document.body.innerText).indexOf(normalize(value).trim()) !== -1;
+}
+return false;
@@ -0,0 +1,92 @@
+package com.example.selenium.bedrock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.example.selenium.bedrock.BedrockClient.BedrockClientConfig;
+import com.example.selenium.bedrock.model.ModelHandlerFactory;
+import com.example.selenium.bedrock.model.Prompt;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+public class BedrockClientRegistryTest {
+
+    @Test
+    public void sharesClientsByModelAndRegion() {
+
+        try( BedrockClientRegistry registry = new BedrockClientRegistry(4, false) ){
+            BedrockClient sonnet = registry.get(BedrockClientConfig.builder().build());
+            assertSame(sonnet, registry.get(BedrockClientConfig.builder().build()));
+
+            BedrockClient nova = registry.get(BedrockClientConfig.builder().modelId(BedrockClient.NOVA_PRO).build());
+            assertNotSame(sonnet, nova);
+            assertSame(registry.runtimeClient(Region.US_EAST_1), registry.runtimeClient(Region.US_EAST_1));
+
+            BedrockClient west = registry.get(BedrockClientConfig.builder().region(Region.US_WEST_2).build());
+            assertNotSame(sonnet, west);
+            assertNotSame(registry.runtimeClient(Region.US_EAST_1), registry.runtimeClient(Region.US_WEST_2));
+        }
+    }
+
+    @Test
+    public void refusesClientsOnceClosed() {
+
+        BedrockClientRegistry registry = new BedrockClientRegistry(4, true);
+        registry.get(BedrockClientConfig.builder().build());
+        registry.close();
+        registry.close();
+        try{
+            registry.get(BedrockClientConfig.builder().build());
+            fail("closed registry handed out a client");
+        }catch(IllegalStateException e){
+        }
+    }
+
+    @Test
+    public void leavesThrottledCallsToThePoolAfterOneRetry() {
+
+        System.setProperty(BedrockRateLimiter.BACKOFF_PROPERTY, "1");
+        try( BedrockClientRegistry registry = new BedrockClientRegistry(4, false, ResponseCache.off(), List.of("us-east-1", "us-west-2")) ){
+            BedrockRateLimiter east = registry.limiter(Region.US_EAST_1);
+            assertSame(east, registry.limiter(Region.US_EAST_1));
+            AtomicInteger attempts = new AtomicInteger();
+            try{
+                east.call(100, () -> {
+                    attempts.incrementAndGet();
+                    throw new CompletionException(ThrottlingException.builder().message("Too many requests").statusCode(429).build());
+                });
+                fail("throttled call succeeded");
+            }catch(CompletionException e){
+                assertEquals(2, attempts.get());
+            }
+            //the other region keeps its window
+            assertEquals(2, east.concurrency(), 0);
+            assertEquals(4, registry.limiter(Region.US_WEST_2).concurrency(), 0);
+        }finally{
+            System.clearProperty(BedrockRateLimiter.BACKOFF_PROPERTY);
+        }
+    }
+
+    @Test
+    public void resolvesInferenceProfilesOfOtherGeographies() {
+
+        try( BedrockClientRegistry registry = new BedrockClientRegistry(4, false, ResponseCache.off(), List.of("us-east-1", "eu-central-1@eu")) ){
+            BedrockClientConfig config = BedrockClientConfig.builder().modelId(BedrockClient.CLAUDE_SONNET_3_7).build();
+            assertEquals(2, ((RegionPool)registry.service(config)).available());
+
+            //the eu. profile of the model gets the handler of its family, prompt caching included
+            assertTrue(ModelHandlerFactory.createModelHandler("eu.anthropic.claude-3-7-sonnet-20250219-v1:0")
+                .createPayload(new Prompt(List.of("system"), "user"), 1000, 0.15d).toString().contains("cache_control"));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.selenium.bedrock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+public class BedrockRateLimiterTest {
+
+    private static RuntimeException throttled() {
+        //as thrown by the join of the stream future
+        return new CompletionException(ThrottlingException.builder().message("Too many requests").statusCode(429).build());
+    }
+
+    @Test
+    public void retriesThrottledCallsAndHalvesTheWindow() {
+
+        BedrockRateLimiter limiter = new BedrockRateLimiter(8, 0, 3, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.call(100, () -> {
+            if( attempts.incrementAndGet() < 3 ){
+                throw throttled();
+            }
+            return "answer";
+        });
+        assertEquals("answer", result);
+        assertEquals(3, attempts.get());
+        //one decrease per burst, then a successful call grows it a bit
+        assertTrue(limiter.concurrency() > 4 && limiter.concurrency() < 5);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void givesUpAfterTheRetriesAndOnOtherErrors() {
+
+        BedrockRateLimiter limiter = new BedrockRateLimiter(8, 0, 2, 1);
+        AtomicInteger attempts = new AtomicInteger();
+        try{
+            limiter.call(100, () -> { attempts.incrementAndGet(); throw throttled(); });
+            fail("throttled call succeeded");
+        }catch(CompletionException e){
+            assertEquals(3, attempts.get());
+        }
+        attempts.set(0);
+        try{
+            limiter.call(100, () -> { attempts.incrementAndGet(); throw new IllegalArgumentException("bad request"); });
+            fail("failed call succeeded");
+        }catch(IllegalArgumentException e){
+            assertEquals(1, attempts.get());
+        }
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void capsConcurrentCallsAtTheWindow() throws Exception {
+
+        BedrockRateLimiter limiter = new BedrockRateLimiter(2, 0, 0, 1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(6);
+        List<Future<Integer>> calls = new ArrayList<>();
+        for( int i=0; i<6; i++ ){
+            calls.add(workers.submit(() -> limiter.call(10, () -> {
+                highest.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try{
+                    Thread.sleep(50);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return running.decrementAndGet();
+            })));
+        }
+        for( Future<Integer> call : calls ){
+            call.get(10, TimeUnit.SECONDS);
+        }
+        workers.shutdown();
+        assertEquals(2, highest.get());
+    }
+
+    @Test
+    public void waitsForTheTokenBucketToRefill() {
+
+        //1000 tokens a second
+        BedrockRateLimiter limiter = new BedrockRateLimiter(4, 60000, 0, 1);
+        limiter.call(60000, () -> "empties the bucket");
+
+        long start = System.nanoTime();
+        limiter.call(300, () -> "waits for 300 tokens");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+}
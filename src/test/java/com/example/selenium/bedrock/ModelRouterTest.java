@@ -0,0 +1,93 @@
+package com.example.selenium.bedrock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.bedrock.model.Prompt;
+import com.example.selenium.metrics.Metrics;
+
+public class ModelRouterTest {
+
+    private static class StubService implements BedrockService {
+
+        private final String answer;
+        private final List<String> calls = new ArrayList<>();
+
+        StubService(String answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public String invoke(String prompt) {
+            return invoke(Prompt.of(prompt));
+        }
+
+        @Override
+        public String invoke(Prompt prompt) {
+            calls.add(prompt.user());
+            if( answer == null ){
+                throw new RuntimeException("throttled");
+            }
+            return answer;
+        }
+
+        @Override
+        public String invokeWithImage(String prompt, Base64Image image) {
+            return invoke(prompt);
+        }
+    }
+
+    @Test
+    public void acceptedAnswersStayOnTheCheapModel() {
+
+        StubService cheap = new StubService("cheap");
+        StubService strong = new StubService("strong");
+        ModelRouter router = new ModelRouter(cheap, "cheap-model", strong, "strong-model", true);
+        long accepted = Metrics.count("router.cheap");
+
+        assertEquals("cheap", router.invoke(Prompt.of("step"), r -> null, false));
+        assertEquals(1, cheap.calls.size());
+        assertEquals(0, strong.calls.size());
+        assertEquals(accepted + 1, Metrics.count("router.cheap"));
+    }
+
+    @Test
+    public void rejectedAnswersEscalateWithTheirReason() {
+
+        StubService cheap = new StubService("cheap");
+        StubService strong = new StubService("strong");
+        ModelRouter router = new ModelRouter(cheap, "cheap-model", strong, "strong-model", true);
+        long unknown = Metrics.count("router.escalated.unknown-id");
+
+        assertEquals("strong", router.invoke(Prompt.of("step"), r -> "unknown-id", false));
+        assertEquals(1, cheap.calls.size());
+        assertEquals(1, strong.calls.size());
+        assertEquals(unknown + 1, Metrics.count("router.escalated.unknown-id"));
+    }
+
+    @Test
+    public void failuresOfTheCheapModelEscalate() {
+
+        StubService strong = new StubService("strong");
+        ModelRouter router = new ModelRouter(new StubService(null), "cheap-model", strong, "strong-model", true);
+
+        assertEquals("strong", router.invoke(Prompt.of("step"), r -> null, false));
+        assertEquals(1, strong.calls.size());
+    }
+
+    @Test
+    public void stepsWithoutProgressSkipTheCheapModel() {
+
+        StubService cheap = new StubService("cheap");
+        StubService strong = new StubService("strong");
+        ModelRouter router = new ModelRouter(cheap, "cheap-model", strong, "strong-model", true);
+
+        assertEquals("strong", router.invoke(Prompt.of("step"), r -> null, true));
+        assertEquals(0, cheap.calls.size());
+    }
+}
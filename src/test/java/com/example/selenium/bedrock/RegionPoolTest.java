@@ -0,0 +1,227 @@
+package com.example.selenium.bedrock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import com.example.selenium.bedrock.BedrockClient.BedrockClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.eventstream.HeaderValue;
+import software.amazon.eventstream.Message;
+
+public class RegionPoolTest {
+
+    /**
+     * Local endpoint standing in for the Bedrock runtime of one region: streams a short Anthropic answer naming the
+     * region, or fails with the configured status.
+     */
+    private static class RegionStandIn implements AutoCloseable {
+
+        private final String name;
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int status = 200;
+
+        RegionStandIn(String name) throws IOException {
+            this.name = name;
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        URI endpoint() {
+            return URI.create("http://localhost:"+server.getAddress().getPort());
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+
+            requests.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            if( status != 200 ){
+                String error = status == 429 ? "ThrottlingException" : status == 400 ? "ValidationException" : "InternalServerException";
+                byte[] body = new JSONObject().put("message", error+" in "+name).toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("x-amzn-ErrorType", error);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/vnd.amazon.eventstream");
+            exchange.sendResponseHeaders(200, 0);
+            try( OutputStream out = exchange.getResponseBody() ){
+                chunk(out, new JSONObject().put("type", "content_block_delta").put("index", 0)
+                    .put("delta", new JSONObject().put("type", "text_delta").put("text", "{\"region\":\""+name+"\"}")));
+                chunk(out, new JSONObject().put("type", "message_stop"));
+            }
+        }
+
+        private static void chunk(OutputStream out, JSONObject chunk) throws IOException {
+
+            Map<String, HeaderValue> headers = new LinkedHashMap<>();
+            headers.put(":message-type", HeaderValue.fromString("event"));
+            headers.put(":event-type", HeaderValue.fromString("chunk"));
+            headers.put(":content-type", HeaderValue.fromString("application/json"));
+            String bytes = Base64.getEncoder().encodeToString(chunk.toString().getBytes(StandardCharsets.UTF_8));
+            new Message(headers, new JSONObject().put("bytes", bytes).toString().getBytes(StandardCharsets.UTF_8)).encode(out);
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    private final List<AutoCloseable> opened = new ArrayList<>();
+
+    @After
+    public void close() throws Exception {
+        for( AutoCloseable c : opened ){
+            c.close();
+        }
+    }
+
+    private RegionStandIn region(String name) throws IOException {
+        RegionStandIn region = new RegionStandIn(name);
+        opened.add(region);
+        return region;
+    }
+
+    private RegionPool pool(int failures, Duration ejection, RegionStandIn... regions) {
+        return pool(failures, ejection, ResponseCache.off(), regions);
+    }
+
+    private RegionPool pool(int failures, Duration ejection, ResponseCache cache, RegionStandIn... regions) {
+
+        Map<String, BedrockClient> members = new LinkedHashMap<>();
+        for( RegionStandIn region : regions ){
+            BedrockRuntimeAsyncClient runtime = BedrockRuntimeAsyncClient.builder()
+                .region(Region.of(region.name))
+                .endpointOverride(region.endpoint())
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                //the pool fails over instead
+                .overrideConfiguration(c -> c.retryPolicy(RetryPolicy.none()))
+                .build();
+            opened.add(runtime);
+            BedrockClientConfig config = BedrockClientConfig.builder().region(Region.of(region.name)).build();
+            members.put(region.name, new BedrockClient(config, runtime, cache, new BedrockRateLimiter(4, 0, 0, 1)));
+        }
+        return new RegionPool(BedrockClient.DEFAULT_MODEL, members, failures, ejection);
+    }
+
+    private static String answeredBy(String response) {
+        JSONObject structured = new JSONObject(response);
+        return new JSONObject(structured.getJSONArray("content").getJSONObject(0).getString("text")).getString("region");
+    }
+
+    @Test
+    public void spreadsCallsOverHealthyRegions() throws Exception {
+
+        RegionStandIn east = region("us-east-1");
+        RegionStandIn west = region("us-west-2");
+        RegionPool pool = pool(3, Duration.ofMinutes(1), east, west);
+
+        for( int i=0; i<10; i++ ){
+            pool.invoke("step");
+        }
+        assertEquals(10, east.requests.get() + west.requests.get());
+        assertTrue(east.requests.get() > 0 && west.requests.get() > 0);
+        assertEquals(2, pool.available());
+    }
+
+    @Test
+    public void failsOverAndEjectsFailingRegions() throws Exception {
+
+        RegionStandIn east = region("us-east-1");
+        RegionStandIn west = region("us-west-2");
+        east.status = 500;
+        RegionPool pool = pool(1, Duration.ofMinutes(1), east, west);
+
+        for( int i=0; i<5; i++ ){
+            assertEquals("us-west-2", answeredBy(pool.invoke("step")));
+        }
+        //untried regions go first, the failure ejected it
+        assertEquals(1, east.requests.get());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    public void checksEjectedRegionsAgainAfterTheEjection() throws Exception {
+
+        RegionStandIn east = region("us-east-1");
+        RegionStandIn west = region("us-west-2");
+        east.status = 429;
+        RegionPool pool = pool(1, Duration.ofMillis(200), east, west);
+
+        assertEquals("us-west-2", answeredBy(pool.invoke("step")));
+        assertEquals(1, pool.available());
+
+        east.status = 200;
+        Thread.sleep(300);
+        assertEquals("us-east-1", answeredBy(pool.invoke("step")));
+        assertEquals(2, pool.available());
+    }
+
+    @Test
+    public void doesNotFailOverInvalidRequests() throws Exception {
+
+        RegionStandIn east = region("us-east-1");
+        RegionStandIn west = region("us-west-2");
+        east.status = 400;
+        RegionPool pool = pool(1, Duration.ofMinutes(1), east, west);
+
+        try{
+            pool.invoke("step");
+            fail("invalid request succeeded");
+        }catch(RuntimeException e){
+            assertEquals(0, west.requests.get());
+            assertEquals(2, pool.available());
+        }
+    }
+
+    @Test
+    public void doesNotFailOverLocalErrors() throws Exception {
+
+        RegionStandIn east = region("us-east-1");
+        RegionStandIn west = region("us-west-2");
+        Path recordings = Files.createTempDirectory("replay");
+        RegionPool pool = pool(1, Duration.ofMinutes(1), new ResponseCache(ResponseCache.Mode.REPLAY, recordings, 10, 0), east, west);
+
+        for( int i=0; i<3; i++ ){
+            try{
+                pool.invoke("step "+i);
+                fail("replayed a response that was not recorded");
+            }catch(IllegalStateException e){
+                assertEquals(2, pool.available());
+            }
+        }
+        assertEquals(0, east.requests.get() + west.requests.get());
+    }
+}
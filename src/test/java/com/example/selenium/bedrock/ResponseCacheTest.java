@@ -0,0 +1,108 @@
+package com.example.selenium.bedrock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.example.selenium.bedrock.ResponseCache.Mode;
+import com.example.selenium.bedrock.model.Base64Image;
+import com.example.selenium.metrics.Metrics;
+
+public class ResponseCacheTest {
+
+    private static JSONObject payload(String text) {
+        return new JSONObject()
+            .put("max_tokens", 1000)
+            .put("temperature", 0.15d)
+            .append("messages", new JSONObject().put("role", "user").put("content", text));
+    }
+
+    @Test
+    public void readThroughServesRepeatedCallsFromMemoryThenDisk() throws Exception {
+
+        Path dir = Files.createTempDirectory("responses");
+        AtomicInteger calls = new AtomicInteger();
+        ResponseCache cache = new ResponseCache(Mode.READ_THROUGH, dir, 10, 1024 * 1024);
+        long diskHits = Metrics.count("response.cache.hit.disk");
+
+        assertEquals("answer-1", cache.get("model", payload("page"), () -> "answer-"+calls.incrementAndGet()));
+        assertEquals("answer-1", cache.get("model", payload("page"), () -> "answer-"+calls.incrementAndGet()));
+        assertEquals("answer-2", cache.get("other-model", payload("page"), () -> "answer-"+calls.incrementAndGet()));
+
+        //a new process finds the responses on disk, then replays them without the model
+        ResponseCache replay = new ResponseCache(Mode.REPLAY, dir, 10, 1024 * 1024);
+        assertEquals("answer-1", replay.get("model", payload("page"), () -> { throw new AssertionError("model called"); }));
+        assertEquals(diskHits + 1, Metrics.count("response.cache.hit.disk"));
+        try{
+            replay.get("model", payload("changed page"), () -> "answer");
+            fail("replay called the model");
+        }catch(IllegalStateException e){
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void hitsDoNotEncodeImagesAgain() throws Exception {
+
+        byte[] screenshot = new byte[300 * 1024];
+        new Random(7).nextBytes(screenshot);
+        JSONObject payload = payload("page").put("image", new Base64Image(screenshot, "png"));
+        ResponseCache cache = new ResponseCache(Mode.READ_THROUGH, Files.createTempDirectory("responses"), 10, 1024 * 1024);
+        cache.get("model", payload, () -> "answer");
+
+        long saved = Metrics.count("response.cache.saved.bytes");
+        assertEquals("answer", cache.get("model", payload, () -> "model"));
+        //the image counts as its digest in the normalized request
+        long added = Metrics.count("response.cache.saved.bytes") - saved;
+        assertTrue(String.valueOf(added), added > 0 && added < 1024);
+    }
+
+    @Test
+    public void recordAlwaysCallsTheModel() throws Exception {
+
+        Path dir = Files.createTempDirectory("responses");
+        ResponseCache cache = new ResponseCache(Mode.RECORD, dir, 10, 1024 * 1024);
+        cache.get("model", payload("page"), () -> "first");
+        assertEquals("second", cache.get("model", payload("page"), () -> "second"));
+        assertEquals("second", new ResponseCache(Mode.REPLAY, dir, 10, 1024 * 1024).get("model", payload("page"), () -> "model"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFilesOverTheDiskLimit() throws Exception {
+
+        Path dir = Files.createTempDirectory("responses");
+        ResponseCache cache = new ResponseCache(Mode.READ_THROUGH, dir, 1, 10 * 1024);
+        String large = "x".repeat(3000);
+        for( int i=0; i<10; i++ ){
+            cache.get("model", payload("page "+i), () -> large);
+        }
+        long size;
+        try( var files = Files.list(dir) ){
+            size = files.mapToLong(f -> f.toFile().length()).sum();
+        }
+        assertTrue(String.valueOf(size), size <= 10 * 1024);
+    }
+
+    @Test
+    public void keysIgnoreKeyOrderAndDigestImages() {
+
+        JSONObject a = new JSONObject().put("a", 1).put("b", "text");
+        JSONObject b = new JSONObject().put("b", "text").put("a", 1);
+        assertEquals(ResponseCache.key("model", a), ResponseCache.key("model", b));
+        assertNotEquals(ResponseCache.key("model", a), ResponseCache.key("other", a));
+
+        String image = "iVBORw0KGgo".repeat(100);
+        JSONObject withImage = new JSONObject().put("source", new JSONObject().put("type", "base64").put("data", image));
+        JSONObject otherImage = new JSONObject().put("source", new JSONObject().put("type", "base64").put("data", image+"AA"));
+        assertNotEquals(ResponseCache.key("model", withImage), ResponseCache.key("model", otherImage));
+    }
+}
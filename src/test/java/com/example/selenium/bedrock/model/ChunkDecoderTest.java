@@ -0,0 +1,50 @@
+package com.example.selenium.bedrock.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+public class ChunkDecoderTest {
+
+    @Test
+    public void readsTheSameTextAsTheJsonParser() {
+
+        ChunkDecoder decoder = new ChunkDecoder();
+        List<SdkBytes> chunks = SampleStreams.anthropic(40);
+        StringBuilder decoded = new StringBuilder();
+        StringBuilder parsed = new StringBuilder();
+        for( SdkBytes chunk : chunks ){
+            CharSequence text = decoder.string(chunk.asByteBuffer(), "delta", "text");
+            JSONObject json = new JSONObject(chunk.asUtf8String());
+            if( "content_block_delta".equals(json.getString("type")) ){
+                parsed.append(json.getJSONObject("delta").getString("text"));
+                decoded.append(text);
+            }else{
+                assertNull(json.toString(), text);
+            }
+        }
+        assertEquals(parsed.toString(), decoded.toString());
+    }
+
+    @Test
+    public void decodesEscapesAndMultiByteCharacters() {
+
+        ChunkDecoder decoder = new ChunkDecoder();
+        String nova = "{ \"contentBlockDelta\" : {\"contentBlockIndex\":0, \"meta\":{\"a\":[1,{\"b\":\"}\"}]}, "
+            + "\"delta\":{\"text\":\"tab\\there \\u00e9 é ⚽ 😀 \\\"quoted\\\" \\\\\"}}}";
+        CharSequence text = decoder.string(ByteBuffer.wrap(nova.getBytes(StandardCharsets.UTF_8)), "contentBlockDelta", "delta", "text");
+        assertEquals("tab\there é é ⚽ 😀 \"quoted\" \\", text.toString());
+
+        assertNull(decoder.string(ByteBuffer.wrap("{\"delta\":{\"text\":1}}".getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+        assertNull(decoder.string(ByteBuffer.wrap("{\"delta\":{\"te".getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+        assertNull(decoder.string(ByteBuffer.wrap("[]".getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.selenium.bedrock.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
+
+public class JsonObjectScannerTest {
+
+    @Test
+    public void completesOnTheClosingBraceOfTheFirstObject() {
+
+        JsonObjectScanner scanner = new JsonObjectScanner();
+        assertFalse(scanner.feed("Here is the next step: {\"explanation\":\"Type {size} in the \\\"search\\\" box"));
+        assertFalse(scanner.feed("\",\"actions\":[{\"action\":\"input\",\"id\":\"search-box\",\"value\":\"ball\"}"));
+        assertNull(scanner.getObject());
+        assertTrue(scanner.feed("]} I chose this because"));
+        assertTrue(scanner.feed("} more text"));
+
+        JSONObject answer = new JSONObject(scanner.getObject());
+        assertEquals("Type {size} in the \"search\" box", answer.getString("explanation"));
+        assertEquals("search-box", answer.getJSONArray("actions").getJSONObject(0).getString("id"));
+    }
+
+    @Test
+    public void escapesLineBreaksInsideStrings() {
+
+        JsonObjectScanner scanner = new JsonObjectScanner();
+        assertTrue(scanner.feed("{\n  \"status\":\"success\",\n  \"explanation\":\"Found\n\tthe cart\"\n}"));
+        assertEquals("Found\n\tthe cart", new JSONObject(scanner.getObject()).getString("explanation"));
+    }
+
+    @Test
+    public void cancelsTheStreamOnceTheAnswerIsComplete() throws Exception {
+
+        List<String> chunks = List.of(
+            "{\"type\":\"message_start\",\"message\":{\"role\":\"assistant\"}}",
+            delta("{\"status\":\"success\","),
+            delta("\"explanation\":\"done\"}"),
+            delta(" Let me know if"),
+            delta(" you need anything else."),
+            "{\"type\":\"message_stop\"}");
+        List<ResponseStream> events = new ArrayList<>();
+        chunks.forEach(c -> events.add(ResponseStream.chunkBuilder().bytes(SdkBytes.fromUtf8String(c)).build()));
+        boolean[] cancelled = { false };
+        int[] delivered = { 0 };
+        SdkPublisher<ResponseStream> publisher = subscriber -> subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                for( ResponseStream event : events ){
+                    if( cancelled[0] ){
+                        return;
+                    }
+                    delivered[0]++;
+                    subscriber.onNext(event);
+                }
+                subscriber.onComplete();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+
+        StreamedResponse response = new StreamedResponse(true);
+        new AnthropicModelHandler().createResponseStreamHandler(response).onEventStream(publisher);
+
+        assertTrue(response.completedEarly());
+        assertTrue(cancelled[0]);
+        assertEquals(3, delivered[0]);
+        JSONObject structured = response.result().get();
+        assertEquals("assistant", structured.getString("role"));
+        assertEquals("{\"status\":\"success\",\"explanation\":\"done\"}", structured.getJSONArray("content").getJSONObject(0).getString("text"));
+    }
+
+    private static String delta(String text) {
+        return new JSONObject()
+            .put("type", "content_block_delta")
+            .put("delta", new JSONObject().put("type", "text_delta").put("text", text))
+            .toString();
+    }
+}
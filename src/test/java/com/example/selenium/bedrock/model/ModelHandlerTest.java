@@ -0,0 +1,218 @@
+package com.example.selenium.bedrock.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import com.example.selenium.bedrock.BedrockClient;
+import com.example.selenium.metrics.Metrics;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
+import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
+
+public class ModelHandlerTest {
+
+    private static final Prompt PROMPT = new Prompt(List.of("instructions", "<testcase>buy a ball</testcase>"), "<code>page</code>");
+
+    @Test
+    public void marksSystemBlocksAsCacheCheckpoints() {
+
+        JSONObject payload = ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_7).createPayload(PROMPT, 1000, 0.15d);
+        JSONArray system = payload.getJSONArray("system");
+        assertEquals(2, system.length());
+        assertEquals("instructions", system.getJSONObject(0).getString("text"));
+        //one checkpoint after the whole stable prefix
+        assertFalse(system.getJSONObject(0).has("cache_control"));
+        assertEquals("ephemeral", system.getJSONObject(1).getJSONObject("cache_control").getString("type"));
+        assertTrue(ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_HAIKU_3_5).createPayload(PROMPT, 1000, 0.15d)
+            .getJSONArray("system").getJSONObject(1).has("cache_control"));
+        JSONObject user = payload.getJSONArray("messages").getJSONObject(0);
+        assertEquals("<code>page</code>", user.getJSONArray("content").getJSONObject(0).getString("text"));
+
+        //models without prompt caching reject cache_control, the default model is one of them
+        payload = ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_5).createPayload(PROMPT, 1000, 0.15d);
+        assertFalse(payload.getJSONArray("system").getJSONObject(1).has("cache_control"));
+        assertFalse(ModelHandlerFactory.createModelHandler(BedrockClient.DEFAULT_MODEL).createPayload(PROMPT, 1000, 0.15d).toString().contains("cache_control"));
+        assertFalse(ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_5).createPayload("text", 1000, 0.15d).has("system"));
+    }
+
+    @Test
+    public void sendsEarlierTurnsBeforeTheStep() {
+
+        Prompt prompt = new Prompt(PROMPT.system(), List.of("<code>full page</code>", "{\"explanation\":\"open\"}"), "<code><unchanged/></code>");
+        JSONArray messages = ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_7).createPayload(prompt, 1000, 0.15d).getJSONArray("messages");
+        assertEquals(3, messages.length());
+        assertEquals("assistant", messages.getJSONObject(1).getString("role"));
+        //the history only grows, it is cached up to its last turn
+        assertTrue(messages.getJSONObject(1).getJSONArray("content").getJSONObject(0).has("cache_control"));
+        assertEquals("<code><unchanged/></code>", messages.getJSONObject(2).getJSONArray("content").getJSONObject(0).getString("text"));
+
+        messages = ModelHandlerFactory.createModelHandler(BedrockClient.NOVA_PRO).createPayload(prompt, 1000, 0.15d).getJSONArray("messages");
+        assertEquals("<code>full page</code>", messages.getJSONObject(0).getJSONArray("content").getJSONObject(0).getString("text"));
+        assertEquals("user", messages.getJSONObject(2).getString("role"));
+    }
+
+    @Test
+    public void novaGetsPlainSystemBlocks() {
+
+        JSONObject payload = ModelHandlerFactory.createModelHandler(BedrockClient.NOVA_PRO).createPayload(PROMPT, 1000, 0.15d);
+        JSONArray system = payload.getJSONArray("system");
+        assertEquals(2, system.length());
+        assertEquals(1, system.getJSONObject(1).length());
+        assertTrue(payload.toString().indexOf("cache") == -1);
+    }
+
+    @Test
+    public void forcesTheAnswerToolWithStructuredOutput() {
+
+        JSONObject anthropic = ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_7, true).createPayload(PROMPT, 1000, 0.15d);
+        JSONObject tool = anthropic.getJSONArray("tools").getJSONObject(0);
+        assertEquals(AnswerTool.NAME, tool.getString("name"));
+        assertEquals("object", tool.getJSONObject("input_schema").getString("type"));
+        assertEquals(AnswerTool.NAME, anthropic.getJSONObject("tool_choice").getString("name"));
+
+        JSONObject nova = ModelHandlerFactory.createModelHandler(BedrockClient.NOVA_PRO, true).createPayload(PROMPT, 1000, 0.15d);
+        JSONObject toolConfig = nova.getJSONObject("toolConfig");
+        assertTrue(toolConfig.getJSONArray("tools").getJSONObject(0).getJSONObject("toolSpec").getJSONObject("inputSchema").getJSONObject("json")
+            .similar(AnswerTool.schema(false)));
+        //steps are only offered when the test plans ahead
+        assertFalse(tool.getJSONObject("input_schema").getJSONObject("properties").has("steps"));
+        Prompt planning = new Prompt(PROMPT.system(), List.of(), PROMPT.user(), true);
+        assertTrue(ModelHandlerFactory.createModelHandler(BedrockClient.CLAUDE_SONNET_3_7, true).createPayload(planning, 1000, 0.15d)
+            .getJSONArray("tools").getJSONObject(0).getJSONObject("input_schema").getJSONObject("properties").has("steps"));
+        assertEquals(AnswerTool.NAME, toolConfig.getJSONObject("toolChoice").getJSONObject("tool").getString("name"));
+
+        assertFalse(ModelHandlerFactory.createModelHandler(BedrockClient.NOVA_PRO).createPayload(PROMPT, 1000, 0.15d).has("toolConfig"));
+    }
+
+    @Test
+    public void readsToolInputDeltasAsText() {
+
+        ChunkDecoder decoder = new ChunkDecoder();
+        String anthropic = "{\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"input_json_delta\",\"partial_json\":\"{\\\"explanation\\\": \\\"Add\"}}";
+        assertEquals("{\"explanation\": \"Add", decoder.string(ByteBuffer.wrap(anthropic.getBytes(StandardCharsets.UTF_8)), "delta", "partial_json").toString());
+        String nova = "{\"contentBlockDelta\":{\"delta\":{\"toolUse\":{\"input\":\"\\\"actions\\\":[\"}},\"contentBlockIndex\":0}}";
+        assertEquals("\"actions\":[", decoder.string(ByteBuffer.wrap(nova.getBytes(StandardCharsets.UTF_8)), "contentBlockDelta", "delta", "toolUse", "input").toString());
+    }
+
+    /**
+     * Feeds the chunks to the stream handler of the model, stops when the response cancels the stream.
+     */
+    private static StreamedResponse stream(ModelHandler handler, boolean earlyCompletion, JSONObject... chunks) {
+
+        StreamedResponse response = new StreamedResponse(earlyCompletion);
+        InvokeModelWithResponseStreamResponseHandler streamHandler = handler.createResponseStreamHandler(response);
+        streamHandler.onEventStream(SdkPublisher.adapt(subscriber -> subscriber.onSubscribe(new Subscription() {
+            private boolean cancelled = false;
+
+            @Override
+            public void request(long n) {
+                for( int i=0; i<chunks.length && !cancelled; i++ ){
+                    subscriber.onNext(ResponseStream.chunkBuilder().bytes(SdkBytes.fromUtf8String(chunks[i].toString())).build());
+                }
+                subscriber.onComplete();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        })));
+        streamHandler.complete();
+        return response;
+    }
+
+    private static JSONObject textDelta(String text) {
+        return new JSONObject().put("type", "content_block_delta").put("index", 0).put("delta", new JSONObject().put("type", "text_delta").put("text", text));
+    }
+
+    @Test
+    public void extractsTheAnswerWithoutEarlyCompletion() {
+
+        StreamedResponse response = stream(new AnthropicModelHandler(), false,
+            textDelta("Here is the next step: {\"explanation\":"),
+            textDelta("\"Open the cart\"} Let me know"),
+            new JSONObject().put("type", "message_stop"));
+        assertFalse(response.completedEarly());
+        assertEquals("{\"explanation\":\"Open the cart\"}", response.result().join().getJSONArray("content").getJSONObject(0).getString("text"));
+    }
+
+    @Test
+    public void recordsUsageOfCancelledStreams() {
+
+        long read = Metrics.count("bedrock.cache.read.tokens");
+        StreamedResponse response = stream(new AnthropicModelHandler(), true,
+            new JSONObject().put("type", "message_start").put("message", new JSONObject().put("role", "assistant")
+                .put("usage", new JSONObject().put("input_tokens", 200).put("cache_read_input_tokens", 1000).put("cache_creation_input_tokens", 0))),
+            textDelta("{\"explanation\":\"Open the cart\"}"),
+            textDelta(" and more text"),
+            new JSONObject().put("type", "message_stop").put("amazon-bedrock-invocationMetrics", new JSONObject().put("inputTokenCount", 200)));
+        assertTrue(response.completedEarly());
+        JSONObject metrics = response.result().join().getJSONObject("metrics");
+        assertEquals("200", metrics.getString("inputTokenCount"));
+        assertEquals(1000, metrics.getLong("cacheReadInputTokenCount"));
+        assertTrue(metrics.has("firstTokenLatency"));
+        assertFalse(metrics.has("invocationLatency"));
+        assertEquals(read + 1000, Metrics.count("bedrock.cache.read.tokens"));
+    }
+
+    @Test
+    public void readsTextAnswersOfImagesWithStructuredOutput() {
+
+        //the image of a captcha is sent without forcing the tool, the model answers with text
+        AnthropicModelHandler anthropic = new AnthropicModelHandler(false, true);
+        assertFalse(anthropic.createPayload(Prompt.of("Read the captcha"), new Base64Image(new byte[]{ 1, 2, 3 }, "png"), 1000, 0.15d).has("tool_choice"));
+        StreamedResponse response = stream(anthropic, false,
+            textDelta("{\"captcha\":"),
+            textDelta("\"XK4P2\"}"),
+            new JSONObject().put("type", "message_stop"));
+        assertEquals("{\"captcha\":\"XK4P2\"}", response.result().join().getJSONArray("content").getJSONObject(0).getString("text"));
+
+        response = stream(new NovaModelHandler(true), false,
+            new JSONObject().put("contentBlockDelta", new JSONObject().put("delta", new JSONObject().put("text", "{\"captcha\":\"XK4P2\"}"))),
+            new JSONObject().put("messageStop", new JSONObject().put("stopReason", "end_turn")));
+        assertEquals("{\"captcha\":\"XK4P2\"}", response.result().join().getJSONArray("content").getJSONObject(0).getString("text"));
+    }
+
+    @Test
+    public void leavesMalformedEscapesToTheParser() {
+
+        ChunkDecoder decoder = new ChunkDecoder();
+        String valid = "{\"delta\":{\"text\":\"caf\\u00e9\"}}";
+        assertEquals("café", decoder.string(ByteBuffer.wrap(valid.getBytes(StandardCharsets.UTF_8)), "delta", "text").toString());
+        String malformed = "{\"delta\":{\"text\":\"caf\\u00zz\"}}";
+        assertNull(decoder.string(ByteBuffer.wrap(malformed.getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+        String signed = "{\"delta\":{\"text\":\"caf\\u-0e9\"}}";
+        assertNull(decoder.string(ByteBuffer.wrap(signed.getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+        String truncated = "{\"delta\":{\"text\":\"caf\\u00";
+        assertNull(decoder.string(ByteBuffer.wrap(truncated.getBytes(StandardCharsets.UTF_8)), "delta", "text"));
+    }
+
+    @Test
+    public void recordsCachedTokens() {
+
+        long read = Metrics.count("bedrock.cache.read.tokens");
+        JSONObject metrics = ModelHandler.invocationMetrics(new JSONObject()
+            .put("inputTokenCount", 120)
+            .put("outputTokenCount", 40)
+            .put("firstByteLatency", 350)
+            .put("invocationLatency", 900)
+            .put("cacheReadInputTokenCount", 1100));
+        assertEquals(read + 1100, Metrics.count("bedrock.cache.read.tokens"));
+        assertEquals(1100, metrics.getLong("cacheReadInputTokenCount"));
+        assertEquals(0, metrics.getLong("cacheWriteInputTokenCount"));
+        assertEquals("350", metrics.getString("firstByteLatency"));
+    }
+}
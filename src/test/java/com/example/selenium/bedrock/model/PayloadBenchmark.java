@@ -0,0 +1,85 @@
+package com.example.selenium.bedrock.model;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+/**
+ * Builds the body of a request with a 2 MB screenshot (about the PNG of a 2560x1440 page) and a 60 KB page: the
+ * legacy way, with the image inlined as a base64 string and the payload serialized with toString, against the
+ * {@link PayloadWriter}.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.selenium.bedrock.model.PayloadBenchmark
+ * (add -prof gc to the JMH options to compare allocation per request).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private File image;
+    private Prompt prompt;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        image = File.createTempFile("screenshot", ".png");
+        byte[] bytes = new byte[2 * 1024 * 1024];
+        new Random(7).nextBytes(bytes);
+        Files.write(image.toPath(), bytes);
+        StringBuilder page = new StringBuilder("<code>");
+        while( page.length() < 60_000 ){
+            page.append("<div id=\"item-").append(page.length()).append("\"><a href=\"/p\">FORZA Icon ball — size 5</a></div>\n");
+        }
+        prompt = new Prompt(List.of("instructions", "<testcase>buy a ball</testcase>"), page.append("</code>").toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.delete();
+    }
+
+    @Benchmark
+    public SdkBytes legacy() {
+
+        JSONObject payload = new AnthropicModelHandler().createPayload(prompt, image, 1000, 0.15d);
+        //as the handlers built it: the base64 string in the payload
+        JSONObject source = payload.getJSONArray("messages").getJSONObject(0).getJSONArray("content").getJSONObject(1).getJSONObject("source");
+        source.put("data", ModelHandler.encodeImageToBase64(image));
+        return SdkBytes.fromUtf8String(payload.toString());
+    }
+
+    @Benchmark
+    public SdkBytes writer() {
+        return PayloadWriter.write(new AnthropicModelHandler().createPayload(prompt, image, 1000, 0.15d));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+
+        new Runner(new OptionsBuilder()
+            .include(PayloadBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.selenium.bedrock.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.example.selenium.bedrock.ResponseCache;
+
+public class PayloadWriterTest {
+
+    private static final Prompt PROMPT = new Prompt(List.of("instructions"), "<code><p>Ballon de football — taille 5 ⚽ \"FORZA\"\n\t\\</p></code>");
+
+    private static File image(int size) throws Exception {
+        File file = File.createTempFile("screenshot", ".png");
+        file.deleteOnExit();
+        byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    /**
+     * The payload as it was sent before: the image inlined as a base64 string.
+     */
+    private static JSONObject inlined(JSONObject payload) {
+        return new JSONObject(payload.toString());
+    }
+
+    @Test
+    public void writesTheSameJsonAsTheSerializedPayload() throws Exception {
+
+        File image = image(100_001);
+        for( ModelHandler handler : List.of(new AnthropicModelHandler(), new NovaModelHandler()) ){
+            JSONObject payload = handler.createPayload(PROMPT, image, 1000, 0.15d);
+            //twice, the second time with a buffer from the pool
+            for( int i=0; i<2; i++ ){
+                JSONObject written = new JSONObject(PayloadWriter.write(payload).asUtf8String());
+                assertTrue(written.toString(), written.similar(inlined(payload)));
+            }
+        }
+        assertTrue(PayloadWriter.write(new JSONObject()).asUtf8String().equals("{}"));
+    }
+
+    @Test
+    public void writesImagesInMemory() throws Exception {
+
+        byte[] jpeg = Files.readAllBytes(image(3000).toPath());
+        JSONObject anthropic = new AnthropicModelHandler().createPayload(PROMPT, new Base64Image(jpeg, "jpeg"), 1000, 0.15d);
+        JSONObject written = new JSONObject(PayloadWriter.write(anthropic).asUtf8String());
+        JSONObject source = written.getJSONArray("messages").getJSONObject(0).getJSONArray("content").getJSONObject(1).getJSONObject("source");
+        assertEquals("image/jpeg", source.getString("media_type"));
+        assertEquals(Base64.getEncoder().encodeToString(jpeg), source.getString("data"));
+
+        JSONObject nova = new NovaModelHandler().createPayload(PROMPT, new Base64Image(jpeg, "jpeg"), 1000, 0.15d);
+        assertTrue(new JSONObject(PayloadWriter.write(nova).asUtf8String()).similar(inlined(nova)));
+        assertEquals("jpeg", nova.getJSONArray("messages").getJSONObject(0).getJSONArray("content").getJSONObject(1).getJSONObject("image").getString("format"));
+    }
+
+    @Test
+    public void keysImagesLikeTheirBase64Text() throws Exception {
+
+        JSONObject payload = new AnthropicModelHandler().createPayload(PROMPT, image(5000), 1000, 0.15d);
+        assertEquals(ResponseCache.key("model", inlined(payload)), ResponseCache.key("model", payload));
+    }
+}
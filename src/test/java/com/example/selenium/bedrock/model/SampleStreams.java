@@ -0,0 +1,48 @@
+package com.example.selenium.bedrock.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+/**
+ * Chunk streams shaped like the ones recorded from the Anthropic Messages API on Bedrock.
+ */
+final class SampleStreams {
+
+    //text of the deltas, as the model writes it
+    private static final String[] FRAGMENTS = { "{\"explanation\":\"", "Click", " on the", " \\\"Add to cart\\\"", " button",
+        " for the FORZA", " ball", " — size 3", " ⚽", "\",\"actions\":[{\"action\":\"click\",", "\"id\":\"a41f09c2\"", ",\"value\":\"Add\"}]}\n" };
+
+    private SampleStreams() {
+    }
+
+    /**
+     * A message_start chunk, deltas texts of a few tokens each and the closing message_delta and message_stop chunks.
+     */
+    static List<SdkBytes> anthropic(int deltas) {
+
+        List<SdkBytes> chunks = new ArrayList<>();
+        chunks.add(SdkBytes.fromUtf8String("{\"type\":\"message_start\",\"message\":{\"id\":\"msg_bdrk_01\",\"type\":\"message\",\"role\":\"assistant\","
+            + "\"model\":\"claude-3-5-sonnet-20241022\",\"content\":[],\"stop_reason\":null,\"usage\":{\"input_tokens\":5012,\"output_tokens\":1}}}"));
+        chunks.add(SdkBytes.fromUtf8String("{\"type\":\"content_block_start\",\"index\":0,\"content_block\":{\"type\":\"text\",\"text\":\"\"}}"));
+        for( int i=0; i<deltas; i++ ){
+            chunks.add(SdkBytes.fromUtf8String(new JSONObject()
+                .put("type", "content_block_delta")
+                .put("index", 0)
+                .put("delta", new JSONObject().put("type", "text_delta").put("text", fragment(i)))
+                .toString()));
+        }
+        chunks.add(SdkBytes.fromUtf8String("{\"type\":\"content_block_stop\",\"index\":0}"));
+        chunks.add(SdkBytes.fromUtf8String("{\"type\":\"message_delta\",\"delta\":{\"stop_reason\":\"end_turn\",\"stop_sequence\":null},\"usage\":{\"output_tokens\":"+deltas+"}}"));
+        chunks.add(SdkBytes.fromUtf8String("{\"type\":\"message_stop\",\"amazon-bedrock-invocationMetrics\":{\"inputTokenCount\":5012,"
+            + "\"outputTokenCount\":"+deltas+",\"invocationLatency\":2210,\"firstByteLatency\":480}}"));
+        return chunks;
+    }
+
+    static String fragment(int i) {
+        return FRAGMENTS[i % FRAGMENTS.length];
+    }
+}
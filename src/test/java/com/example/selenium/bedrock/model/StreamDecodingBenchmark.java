@@ -0,0 +1,85 @@
+package com.example.selenium.bedrock.model;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+/**
+ * Compares the legacy handling of a stream (every chunk parsed into a JSONObject, text appended to an
+ * AtomicReference&lt;String&gt;) with {@link ChunkDecoder} and a StringBuilder, on streams of 50 to 5000 deltas.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.selenium.bedrock.model.StreamDecodingBenchmark
+ * (add -prof gc to the JMH options to compare allocation rates).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamDecodingBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int deltas;
+
+    private List<SdkBytes> chunks;
+
+    @Setup
+    public void setUp() {
+        chunks = SampleStreams.anthropic(deltas);
+    }
+
+    @Benchmark
+    public String legacy() {
+
+        AtomicReference<String> completeMessage = new AtomicReference<>("");
+        for( SdkBytes c : chunks ){
+            var chunk = new JSONObject(c.asUtf8String());
+            if( "content_block_delta".equals(chunk.getString("type")) ){
+                var text = chunk.optJSONObject("delta").optString("text");
+                completeMessage.getAndUpdate(current -> current + text);
+            }
+        }
+        return completeMessage.get();
+    }
+
+    @Benchmark
+    public String decoder() {
+
+        ChunkDecoder decoder = new ChunkDecoder();
+        StringBuilder completeMessage = new StringBuilder(1024);
+        for( SdkBytes c : chunks ){
+            CharSequence text = decoder.string(c.asByteBuffer(), "delta", "text");
+            if( text != null ){
+                completeMessage.append(text);
+            }else{
+                new JSONObject(c.asUtf8String());
+            }
+        }
+        return completeMessage.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+
+        new Runner(new OptionsBuilder()
+            .include(StreamDecodingBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.selenium.browser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class AccessibilityOutlineTest {
+
+    private static final String OUTLINE = String.join("\n",
+        "banner #top",
+        "  searchbox \"Search products\" value=\"ball\" #search-box",
+        "  combobox \"Category\" value=\"All\" #category",
+        "    option \"All\" value=\"all\" [selected] #all",
+        "  button \"Go\" #search-submit",
+        "main",
+        "  heading \"Item #3\" [level=1] #title",
+        "  button \"Menu\" #menu-toggle",
+        "  link \"Help\"",
+        "  checkbox \"Gift wrap\" [checked] #a41f09c2");
+
+    @Test
+    public void everyIdResolvesToAHarvestedElement() {
+
+        Set<String> harvested = Set.of("search-box", "category", "search-submit", "a41f09c2");
+        String restricted = AccessibilityOutline.restrict(OUTLINE, harvested);
+        assertEquals(String.join("\n",
+            "banner",
+            "  searchbox \"Search products\" value=\"ball\" #search-box",
+            "  combobox \"Category\" value=\"All\" #category",
+            "    option \"All\" value=\"all\" [selected]",
+            "  button \"Go\" #search-submit",
+            "main",
+            "  heading \"Item #3\" [level=1]",
+            "  checkbox \"Gift wrap\" [checked] #a41f09c2"), restricted);
+
+        Matcher ids = Pattern.compile(" #([^\\s\"\\]]+)$", Pattern.MULTILINE).matcher(restricted);
+        int count = 0;
+        while( ids.find() ){
+            assertTrue(ids.group(1), harvested.contains(ids.group(1)));
+            count++;
+        }
+        assertEquals(4, count);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.selenium.browser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.example.selenium.browser.ScreenshotCapture.Clip;
+import com.example.selenium.browser.ScreenshotCapture.Format;
+import com.example.selenium.browser.ScreenshotCapture.Screenshot;
+
+public class ScreenshotCaptureTest {
+
+    private static byte[] png(int width, int height) throws Exception {
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.fillRect(width / 2, 0, width / 2, height);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage read(Screenshot screenshot) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(screenshot.data()));
+    }
+
+    @Test
+    public void keepsPngScreenshotsAsCaptured() throws Exception {
+
+        byte[] png = png(64, 32);
+        Screenshot screenshot = ScreenshotCapture.transform(png, Format.PNG, 80, 1, null);
+        assertSame(png, screenshot.data());
+        assertEquals(Format.PNG, screenshot.format());
+    }
+
+    @Test
+    public void cropsScalesAndEncodesAsJpeg() throws Exception {
+
+        Screenshot screenshot = ScreenshotCapture.transform(png(400, 200), Format.JPEG, 70, 0.5, Clip.parse("200, 0, 200, 100"));
+        assertEquals(Format.JPEG, screenshot.format());
+        BufferedImage image = read(screenshot);
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+        //only the red half was kept
+        Color center = new Color(image.getRGB(50, 25));
+        assertEquals(255, center.getRed(), 10);
+        assertEquals(0, center.getGreen(), 10);
+    }
+
+    @Test
+    public void fallsBackToJpegForWebpWithoutCdp() throws Exception {
+
+        Screenshot screenshot = ScreenshotCapture.transform(png(100, 100), Format.WEBP, 80, 0.25, null);
+        assertEquals(Format.JPEG, screenshot.format());
+        assertEquals(25, read(screenshot).getWidth());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.selenium.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.example.selenium.html.HtmlElement;
+
+public class PlanStoreTest {
+
+    private static final String URL = "https://store.example.com";
+
+    private static HtmlElement element(String id) {
+        return new HtmlElement("clickable", id, null, Boolean.FALSE);
+    }
+
+    @Test
+    public void fingerprintsIgnoreElementOrderAndFragments() {
+
+        String fingerprint = PlanStore.fingerprint(URL+"/s?k=ball", List.of(element("search-box"), element("a41f09c2")));
+        assertEquals(fingerprint, PlanStore.fingerprint(URL+"/s?k=ball#results", List.of(element("a41f09c2"), element("search-box"))));
+        assertNotEquals(fingerprint, PlanStore.fingerprint(URL+"/s?k=ball", List.of(element("search-box"))));
+        assertNotEquals(fingerprint, PlanStore.fingerprint(URL+"/cart", List.of(element("search-box"), element("a41f09c2"))));
+    }
+
+    @Test
+    public void savesAndFindsPlansByUrlAndTestCase() throws Exception {
+
+        PlanStore store = new PlanStore(Files.createTempDirectory("plans"));
+        JSONArray search = new JSONArray().put(new JSONObject().put("action", "input").put("id", "search-box").put("value", "ball"))
+            .put(new JSONObject().put("action", "click").put("id", "search-submit").put("value", "Go"));
+        store.save(URL, "Search for a ball", List.of(new PlanStore.Step("0badf00d", search)));
+
+        List<PlanStore.Step> plan = store.find(URL, "Search for a ball");
+        assertEquals(1, plan.size());
+        assertEquals("0badf00d", plan.get(0).fingerprint());
+        assertEquals("search-submit", plan.get(0).actions().getJSONObject(1).getString("id"));
+        assertTrue(store.find(URL, "Add a ball to the cart").isEmpty());
+
+        store.discard(URL, "Search for a ball");
+        assertTrue(store.find(URL, "Search for a ball").isEmpty());
+    }
+
+    @Test
+    public void ignoresUnreadablePlans() throws Exception {
+
+        Path dir = Files.createTempDirectory("plans");
+        PlanStore store = new PlanStore(dir);
+        store.save(URL, "test", List.of());
+        try( var files = Files.list(dir) ){
+            Files.writeString(files.findFirst().get(), "{not json");
+        }
+        assertTrue(store.find(URL, "test").isEmpty());
+    }
+}
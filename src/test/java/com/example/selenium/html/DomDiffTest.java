@@ -0,0 +1,105 @@
+package com.example.selenium.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class DomDiffTest {
+
+    private static final String URL = "https://store.example.com/s?k=ball";
+
+    @Test
+    public void sendsOnlyTheChangedElements() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        DomDiff diff = new DomDiff(0.5);
+        String page = SamplePages.largeStore(5);
+        String full = cleaner.clean(page);
+        assertEquals(full, diff.describe(URL, cleaner, full));
+
+        String opened = page.replace("<option value=\"sports\">", "<option value=\"sports\" selected>");
+        String description = diff.describe(URL, cleaner, cleaner.clean(opened));
+        assertTrue(description, description.startsWith("<skeleton><body><header id=\"nav\"><form><input id=\"search-box\"/><select id=\"category\"/>"));
+        assertTrue(description, description.contains("<change path=\"#category/option[2]\"><option value=\"sports\" selected>"));
+        assertFalse(description.contains("FORZA"));
+        assertTrue(description.length() < full.length() / 5);
+
+        assertFalse(diff.sentFullPage());
+
+        assertEquals("<unchanged/>", diff.describe(URL, cleaner, cleaner.clean(opened)));
+    }
+
+    @Test
+    public void comparesPagesBeforePruning() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        DomDiff diff = new DomDiff(0.5);
+        String page = SamplePages.largeStore(5);
+        String full = cleaner.clean(page);
+        DomDiff.Changes changes = diff.compare(URL, cleaner);
+        //the first step is pruned to fit the budget, the second one is not
+        cleaner.getDocument().select("main").last().remove();
+        String pruned = cleaner.getDocument().body().outerHtml();
+        assertEquals(pruned, diff.describe(changes, pruned));
+        assertTrue(diff.sentFullPage());
+
+        cleaner.clean(page);
+        assertEquals("<unchanged/>", diff.describe(diff.compare(URL, cleaner), full));
+        assertFalse(diff.sentFullPage());
+    }
+
+    @Test
+    public void sendsTheWholePageAfterNavigating() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        DomDiff diff = new DomDiff(0.5);
+        String full = cleaner.clean(SamplePages.store());
+        diff.describe(URL, cleaner, full);
+        assertEquals(full, diff.describe(URL+"&page=2", cleaner, cleaner.clean(SamplePages.store())));
+    }
+
+    @Test
+    public void sendsTheWholePageWhenMostOfItChanged() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        DomDiff diff = new DomDiff(0.3);
+        String page = SamplePages.largeStore(5);
+        diff.describe(URL, cleaner, cleaner.clean(page));
+
+        String changed = cleaner.clean(page.replace("class=\"card\"", "class=\"card\" aria-busy=\"true\""));
+        assertEquals(changed, diff.describe(URL, cleaner, changed));
+
+        diff.reset();
+        assertEquals(changed, diff.describe(URL, cleaner, changed));
+    }
+
+    @Test
+    public void keepsTheConversationWithinTheBudget() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        DomDiff diff = new DomDiff(0.5);
+        PagePruner pruner = new PagePruner(3500);
+        String testCase = "Search for a ball and add it to the cart";
+        int fixedTokens = 200;
+        String page = SamplePages.largeStore(5);
+        int partial = 0;
+        for( int step=0; step<30; step++ ){
+            String html = cleaner.clean(page.replace("value=\"\" data-autocomplete", "value=\"ball "+step+"\" data-autocomplete"));
+            DomDiff.Changes changes = diff.compare(URL, cleaner, html.length(), pruner.tokenBudget() - fixedTokens);
+            int reserved = fixedTokens + diff.historyTokens();
+            String description = diff.describe(changes, pruner.prune(cleaner, html, List.of(), testCase, reserved).html());
+            assertTrue("step "+step, reserved + PagePruner.estimateTokens(description) <= pruner.tokenBudget());
+            if( !diff.sentFullPage() ){
+                partial++;
+            }
+            diff.answered("<code>"+description+"</code>", "{\"explanation\":\"Type the search\",\"actions\":[]}");
+        }
+        //the whole page is sent again once the steps since the last one outweigh it
+        assertTrue(partial > 0 && partial < 29);
+        assertTrue(diff.historyTokens() <= pruner.tokenBudget());
+    }
+}
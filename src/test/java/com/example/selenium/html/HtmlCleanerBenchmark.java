@@ -0,0 +1,63 @@
+package com.example.selenium.html;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the legacy cleanHtml + HtmlCompressor pipeline with {@link HtmlCleaner} on pages of 0.5 MB and 3 MB.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.selenium.html.HtmlCleanerBenchmark
+ * (add -prof gc to the JMH options to compare allocation rates).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlCleanerBenchmark {
+
+    @Param({"100", "600"})
+    public int copies;
+
+    private String page;
+    private LegacyHtmlCleaner legacy;
+    private HtmlCleaner cleaner;
+
+    @Setup
+    public void setUp() {
+        page = SamplePages.largeStore(copies);
+        legacy = new LegacyHtmlCleaner();
+        cleaner = new HtmlCleaner();
+    }
+
+    @Benchmark
+    public String legacy() {
+        return legacy.clean(page);
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return cleaner.clean(page);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+
+        new Runner(new OptionsBuilder()
+            .include(HtmlCleanerBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.selenium.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HtmlCleanerTest {
+
+    @Test
+    public void matchesTheLegacyPipeline() {
+
+        String page = SamplePages.store();
+        assertEquals(new LegacyHtmlCleaner().clean(page), new HtmlCleaner().clean(page));
+    }
+
+    @Test
+    public void matchesTheLegacyPipelineOnLargePages() {
+
+        String page = SamplePages.largeStore(200);
+        HtmlCleaner cleaner = new HtmlCleaner();
+        String expected = new LegacyHtmlCleaner().clean(page);
+        assertEquals(expected, cleaner.clean(page));
+        //buffers are reused
+        assertEquals(expected, cleaner.clean(page));
+    }
+
+    @Test
+    public void stripsNoise() {
+
+        String html = new HtmlCleaner().clean(SamplePages.store());
+        assertFalse(html.contains("<script"));
+        assertFalse(html.contains("data-asin"));
+        assertTrue(html.contains("xdata-legacy=\"no-data-prefix\""));
+        assertFalse(html.contains("<!-- sponsored"));
+        assertFalse(html.contains("coverage 87%"));
+        assertTrue(html.contains("second coverage stays"));
+        assertTrue(html.contains("<a href=\"/dp/\">Training Ball</a>"));
+        assertTrue(html.contains("<a href=\"https://help.example.com\">"));
+    }
+}
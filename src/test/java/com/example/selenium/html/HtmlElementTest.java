@@ -0,0 +1,35 @@
+package com.example.selenium.html;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.openqa.selenium.WebElement;
+
+public class HtmlElementTest {
+
+    @Test
+    public void derivesTheSameIdsAsThePageScript() {
+
+        //values computed by the hash function of harvest-elements.js
+        assertEquals("811c9dc5", HtmlElement.deriveId(""));
+        assertEquals("e40c292c", HtmlElement.deriveId("a"));
+        assertEquals("6052b88d", HtmlElement.deriveId("div[1]/button[2]|name=é"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idsAreNotDerivedFromElementHandles() {
+        HtmlElement.builder().type("clickable").element(element("session-1", "f.1A")).build();
+    }
+
+    private static WebElement element(String session, String reference) {
+
+        return (WebElement)Proxy.newProxyInstance(WebElement.class.getClassLoader(), new Class<?>[]{ WebElement.class }, (proxy, method, args) -> {
+            if( "toString".equals(method.getName()) ){
+                return "[[ChromeDriver: chrome on linux ("+session+")] -> element "+reference+"]";
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
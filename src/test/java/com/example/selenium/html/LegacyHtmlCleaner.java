@@ -0,0 +1,134 @@
+package com.example.selenium.html;
+
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+
+import com.googlecode.htmlcompressor.compressor.HtmlCompressor;
+
+/**
+ * The cleaning pipeline used before {@link HtmlCleaner}: AbstractNavigation.cleanHtml followed by HtmlCompressor.
+ * Kept as the reference for the equivalence test and the benchmark.
+ */
+class LegacyHtmlCleaner {
+
+    private final HtmlCompressor compressor = new HtmlCompressor();
+
+    String clean(String html) {
+        return compressor.compress(cleanHtml(html));
+    }
+
+    static String cleanHtml(String htmlString) {
+
+        final Document doc = Jsoup.parse(htmlString);
+
+        // Remove all script and style elements
+        Elements scripts = doc.select("script, style");
+        for (Element script : scripts) {
+            script.remove();
+        }
+        //remove script tags inside the body
+        Document body = Jsoup.parseBodyFragment(doc.select("body").html());
+        body.select("script").remove();
+
+        removeComments(body);
+
+        //remove script and head from inside the iframe
+        Elements iframes = doc.select("iframe");
+
+        // Iterate through the <iframe> elements
+        for (Element iframe : iframes) {
+
+            if(!iframe.attributes().hasKey("srcdoc")) continue;
+            // Parse the content of the <iframe> as a new Document
+            Document iframeDoc = Jsoup.parse(iframe.attributes().get("srcdoc"));
+        
+            // Select all <script> elements within the <head> section of the <iframe>
+            scripts = iframeDoc.select("script");
+            //remove script tags inside the body
+            Document bodyIFrameDoc = Jsoup.parseBodyFragment(iframeDoc.select("body").html());
+            bodyIFrameDoc.select("script").remove();
+        
+            // Remove the selected <script> elements
+            scripts.remove();
+        
+            // Update the <iframe> content with the modified HTML
+            iframe.attributes().put("srcdoc", iframeDoc.outerHtml());
+        }        
+
+        // Remove the div with id 'coverage'
+        Element coverageDiv = doc.selectFirst("#coverage");
+        if (coverageDiv != null) {
+            coverageDiv.remove();
+        }
+
+        // Remove class from divs
+        Elements divs = doc.select("div");
+        divs.stream().forEach(div-> div.removeAttr("class"));
+
+        // Remove class from span
+        Elements spans = doc.select("span");
+        spans.stream().forEach(span-> span.removeAttr("class"));
+
+        // Remove class from ul
+        Elements uls = doc.select("ul");
+        uls.stream().forEach(ul-> ul.removeAttr("class"));
+
+        //remove the attributes data- attributes from a, ul, div, span, input
+        Elements elementsWithDataAttrs = doc.select("[^data-]");
+        elementsWithDataAttrs.forEach(elem->{
+           
+           List<Attribute> attributes = elem.attributes().asList();
+           attributes.stream().filter(attr->attr.getKey().indexOf("data-") != -1).forEach(attr->elem.removeAttr(attr.getKey()));
+        });
+
+        //if href starts with / we will on try to remove the extra info and update href with information inside the first / and the second /
+        Elements links = doc.select("a");
+        links.stream().forEach(link->{
+
+            String href = link.attr("href");
+            if(href.startsWith("/")){
+                String[] parts = href.split("/");
+                if(parts.length > 2){
+                    link.attr("href", "/"+parts[1]+"/");
+                }
+            }else if(href.startsWith("https")){
+                String[] parts = href.split("/");
+                if(parts.length > 3){
+                    link.attr("href", "https://"+parts[2]);
+                }
+                if( parts.length == 3){
+                    if(parts[2].indexOf("?")!=-1){
+                        link.attr("href", "https://"+parts[2].substring(0, parts[2].indexOf("?")));
+                    }else{
+                        link.attr("href", "https://"+parts[2]);
+                    }
+                }
+            }
+        });
+
+        // Remove the alt attribute from images
+        Elements images = doc.select("img");
+        images.stream().forEach(image->image.removeAttr("alt"));
+        images.stream().forEach(image->image.removeAttr("srcset"));        
+        
+        return doc.html().replaceAll("\\s+", " ");
+    }
+
+    private static void removeComments(Node node) {
+        for (int i = 0; i < node.childNodeSize();) {
+            Node child = node.childNode(i);
+            if (child.nodeName().equals("#comment"))
+                child.remove();
+            else {
+                removeComments(child);
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.selenium.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class PagePrunerTest {
+
+    private static final String TEST_CASE = "Search for a soccer ball and choose the Sports category, then write a review";
+
+    private static List<HtmlElement> elements() {
+        return List.of(
+            HtmlElement.builder().type("input").id("search-box").build(),
+            HtmlElement.builder().type("input").id("category").build(),
+            HtmlElement.builder().type("clickable").id("search-submit").build(),
+            HtmlElement.builder().type("input").id("review").build());
+    }
+
+    @Test
+    public void leavesPagesWithinBudgetAlone() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        String html = cleaner.clean(SamplePages.store());
+        List<HtmlElement> elements = elements();
+        PagePruner.Result result = new PagePruner(60000).prune(cleaner, html, elements, TEST_CASE, 2000);
+        assertSame(html, result.html());
+        assertSame(elements, result.elements());
+        assertEquals(0, result.prunedTokens());
+    }
+
+    @Test
+    public void keepsTheRelevantPartsWithinBudget() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        String html = cleaner.clean(SamplePages.largeStore(100));
+        PagePruner.Result result = new PagePruner(10000).prune(cleaner, html, elements(), TEST_CASE, 2000);
+
+        assertTrue(PagePruner.estimateTokens(result.html()) <= 8000);
+        assertTrue(result.prunedTokens() > 0);
+        assertTrue(result.html().contains("id=\"search-box\""));
+        assertTrue(result.html().contains("id=\"category\""));
+        assertTrue(result.html().contains("Example Store - Soccer Balls"));
+        assertEquals(4, result.elements().size());
+    }
+}
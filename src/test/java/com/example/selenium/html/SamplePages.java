@@ -0,0 +1,42 @@
+package com.example.selenium.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pages used by the cleaner tests and benchmarks.
+ */
+final class SamplePages {
+
+    private SamplePages() {
+    }
+
+    static String store() {
+
+        try( InputStream in = SamplePages.class.getResourceAsStream("/html/store.html") ){
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The store page with its main section repeated, about 5 KB per copy.
+     */
+    static String largeStore(int copies) {
+
+        String page = store();
+        int start = page.indexOf("<main id=\"main\">");
+        int end = page.indexOf("</main>") + "</main>".length();
+        String main = page.substring(start, end);
+        StringBuilder html = new StringBuilder(page.length() + main.length() * copies);
+        html.append(page, 0, end);
+        for( int i=1; i<copies; i++ ){
+            html.append('\n').append(main.replace("B0001", "B"+i));
+        }
+        html.append(page, end, page.length());
+        return html.toString();
+    }
+}
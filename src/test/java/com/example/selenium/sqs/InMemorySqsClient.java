@@ -0,0 +1,150 @@
+package com.example.selenium.sqs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+/**
+ * Single queue stand-in for SQS with a manual clock. Only the calls used by the workers are implemented.
+ */
+public class InMemorySqsClient implements SqsClient {
+
+    private final long visibilityTimeoutMillis;
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<String, Entry> messages = new LinkedHashMap<>();
+    final AtomicInteger changeVisibilityCalls = new AtomicInteger();
+    final AtomicInteger sendBatchCalls = new AtomicInteger();
+    //send batches that fail before reaching the queue
+    final AtomicInteger failingSendBatches = new AtomicInteger();
+
+    public InMemorySqsClient(long visibilityTimeoutSeconds) {
+        this.visibilityTimeoutMillis = visibilityTimeoutSeconds * 1000;
+    }
+
+    public void advanceSeconds(long seconds) {
+        clock.addAndGet(seconds * 1000);
+    }
+
+    @Override
+    public synchronized SendMessageResponse sendMessage(SendMessageRequest request) {
+        String id = UUID.randomUUID().toString();
+        messages.put(id, new Entry(id, request.messageBody()));
+        return SendMessageResponse.builder().messageId(id).build();
+    }
+
+    @Override
+    public synchronized SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest request) {
+        sendBatchCalls.incrementAndGet();
+        if( failingSendBatches.getAndUpdate(n -> Math.max(0, n-1)) > 0 ){
+            throw SqsException.builder().message("Service unavailable").statusCode(503).build();
+        }
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+        for( SendMessageBatchRequestEntry e : request.entries() ){
+            String id = UUID.randomUUID().toString();
+            messages.put(id, new Entry(id, e.messageBody()));
+            successful.add(SendMessageBatchResultEntry.builder().id(e.id()).messageId(id).build());
+        }
+        return SendMessageBatchResponse.builder().successful(successful).build();
+    }
+
+    /**
+     * Bodies of the messages on the queue, received or not.
+     */
+    public synchronized List<String> bodies() {
+        return messages.values().stream().map(m -> m.body).toList();
+    }
+
+    @Override
+    public synchronized ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        int max = request.maxNumberOfMessages() == null ? 1 : request.maxNumberOfMessages();
+        List<Message> received = new ArrayList<>();
+        for( Entry entry : messages.values() ){
+            if( received.size() == max ) break;
+            if( entry.visibleAt > clock.get() ) continue;
+            entry.receiptHandle = UUID.randomUUID().toString();
+            entry.visibleAt = clock.get() + visibilityTimeoutMillis;
+            received.add(Message.builder().messageId(entry.id).body(entry.body).receiptHandle(entry.receiptHandle).build());
+        }
+        return ReceiveMessageResponse.builder().messages(received).build();
+    }
+
+    @Override
+    public synchronized ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        changeVisibilityCalls.incrementAndGet();
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for( ChangeMessageVisibilityBatchRequestEntry e : request.entries() ){
+            Entry entry = byReceiptHandle(e.receiptHandle());
+            if( entry == null ){
+                failed.add(BatchResultErrorEntry.builder().id(e.id()).code("ReceiptHandleIsInvalid").senderFault(true).build());
+            }else{
+                entry.visibleAt = clock.get() + e.visibilityTimeout() * 1000L;
+                successful.add(ChangeMessageVisibilityBatchResultEntry.builder().id(e.id()).build());
+            }
+        }
+        return ChangeMessageVisibilityBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    @Override
+    public synchronized DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        for( DeleteMessageBatchRequestEntry e : request.entries() ){
+            Entry entry = byReceiptHandle(e.receiptHandle());
+            if( entry != null ){
+                messages.remove(entry.id);
+            }
+            successful.add(DeleteMessageBatchResultEntry.builder().id(e.id()).build());
+        }
+        return DeleteMessageBatchResponse.builder().successful(successful).build();
+    }
+
+    private Entry byReceiptHandle(String receiptHandle) {
+        return messages.values().stream().filter(m -> receiptHandle.equals(m.receiptHandle)).findFirst().orElse(null);
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static class Entry {
+        private final String id;
+        private final String body;
+        private String receiptHandle;
+        private long visibleAt = 0;
+
+        private Entry(String id, String body) {
+            this.id = id;
+            this.body = body;
+        }
+    }
+}
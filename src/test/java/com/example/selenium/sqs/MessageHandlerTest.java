@@ -0,0 +1,98 @@
+package com.example.selenium.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.example.selenium.command.PageRepresentation;
+
+public class MessageHandlerTest {
+
+    @BeforeClass
+    public static void configureWorkers() {
+        System.setProperty(WorkerPool.WORKERS_PROPERTY, "4");
+        System.setProperty(WorkerPool.SESSION_MEMORY_PROPERTY, "1");
+        System.setProperty(WorkerPool.RESERVED_MEMORY_PROPERTY, "0");
+    }
+
+    @Test
+    public void drainsInMemorySource() {
+
+        InMemoryJobSource source = new InMemoryJobSource();
+        for( int i=0; i<50; i++ ){
+            source.offer(new JSONObject().put("id", "job-"+i).put("url", "https://example.com").put("testCases", new JSONArray().put("noop")).toString());
+        }
+        source.offer("{\"id\":\"missing-url\"}");
+        source.close();
+        InMemoryResultSink sink = new InMemoryResultSink();
+        AtomicInteger executed = new AtomicInteger();
+
+        new MessageHandler(source, sink, Boolean.FALSE){
+            @Override
+            protected String runTestCases(String id, String url, JSONArray testCases, Boolean setIds, PageRepresentation pageRepresentation) {
+                executed.incrementAndGet();
+                return new JSONObject().put("status", "SUCCEED").put("id", id).toString();
+            }
+        }.processMessages();
+
+        assertEquals(50, executed.get());
+        assertEquals(50, sink.getResults().size());
+        //invalid messages are discarded, not redelivered
+        assertEquals(51, source.completed());
+        assertTrue(source.isExhausted());
+    }
+
+    @Test
+    public void closesTheSinkOnce() {
+
+        InMemoryJobSource source = new InMemoryJobSource();
+        source.close();
+        AtomicInteger closed = new AtomicInteger();
+        ResultSink sink = new InMemoryResultSink(){
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        };
+        MessageHandler handler = new MessageHandler(source, sink, Boolean.FALSE);
+        handler.processMessages();
+        handler.processMessages();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void readsPrettyPrintedAndJsonlPayloads() throws Exception {
+
+        Path file = Files.createTempFile("jobs", ".jsonl");
+        Files.writeString(file, Files.readString(Path.of("sample-test-payload.json"))
+            + "\n{\"id\":\"2\",\"url\":\"https://example.com\",\"testCases\":[\"a\",\"b\"]}"
+            + "\n{\"id\":\"3\",\"url\":\"https://example.com\",\"testCases\":[\"c\"]}\n");
+
+        JsonlFileJobSource source = new JsonlFileJobSource(file);
+        assertEquals(3, source.pending());
+        Path results = Files.createTempFile("results", ".jsonl");
+        JsonlFileResultSink sink = new JsonlFileResultSink(results);
+
+        new MessageHandler(source, sink, Boolean.FALSE){
+            @Override
+            protected String runTestCases(String id, String url, JSONArray testCases, Boolean setIds, PageRepresentation pageRepresentation) throws Exception {
+                if( "2".equals(id) ){
+                    throw new IllegalStateException("browser crashed");
+                }
+                return new JSONObject().put("status", "SUCCEED").put("id", id).toString();
+            }
+        }.processMessages();
+
+        assertEquals(2, Files.readAllLines(results).size());
+        assertEquals(1, source.abandoned());
+        assertTrue(source.isExhausted());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.selenium.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SqsBatcherTest {
+
+    private static final String QUEUE = "in-memory";
+
+    private static String receive(InMemorySqsClient sqs, String body) {
+        sqs.sendMessage(b -> b.queueUrl(QUEUE).messageBody(body));
+        return sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().get(0).receiptHandle();
+    }
+
+    @Test
+    public void sendsFullBatchesRightAway() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        try( SqsBatcher batcher = new SqsBatcher(sqs, Duration.ofHours(1)) ){
+            for( int i=0; i<25; i++ ){
+                batcher.send(QUEUE, "reply "+i);
+            }
+            assertEquals(2, sqs.sendBatchCalls.get());
+            assertEquals(20, sqs.bodies().size());
+
+            batcher.flush();
+            assertEquals(3, sqs.sendBatchCalls.get());
+            assertEquals(25, sqs.bodies().size());
+        }
+    }
+
+    @Test
+    public void deletesWaitForTheReplyOfTheirMessage() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        String handle = receive(sqs, "job");
+        try( SqsBatcher batcher = new SqsBatcher(sqs, Duration.ofHours(1)) ){
+            sqs.failingSendBatches.set(1);
+            batcher.send(QUEUE, "reply");
+            batcher.delete(QUEUE, handle);
+
+            batcher.flush();
+            assertEquals("the message stays until its reply is sent", List.of("job"), sqs.bodies());
+
+            batcher.flush();
+            assertEquals(List.of("reply"), sqs.bodies());
+        }
+    }
+
+    @Test
+    public void keepsMessagesWhoseReplyWasGivenUp() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        String handle = receive(sqs, "job");
+        try( SqsBatcher batcher = new SqsBatcher(sqs, Duration.ofHours(1)) ){
+            sqs.failingSendBatches.set(3);
+            batcher.send(QUEUE, "reply");
+            batcher.delete(QUEUE, handle);
+            for( int i=0; i<4; i++ ){
+                batcher.flush();
+            }
+            assertEquals(3, sqs.sendBatchCalls.get());
+            assertEquals("received again instead of lost", List.of("job"), sqs.bodies());
+        }
+    }
+
+    @Test
+    public void deletesOnlyWaitForRepliesOfTheirThread() throws Exception {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        String first = receive(sqs, "first");
+        String second = receive(sqs, "second");
+        try( SqsBatcher batcher = new SqsBatcher(sqs, Duration.ofHours(1)) ){
+            sqs.failingSendBatches.set(1);
+            batcher.send(QUEUE, "reply");
+            Thread other = new Thread(() -> batcher.delete(QUEUE, second));
+            other.start();
+            other.join();
+            batcher.delete(QUEUE, first);
+
+            batcher.flush();
+            assertEquals(List.of("first"), sqs.bodies());
+        }
+    }
+
+    @Test
+    public void closeFlushesEverything() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        String done = receive(sqs, "done");
+        String failed = receive(sqs, "failed");
+        SqsBatcher batcher = new SqsBatcher(sqs, Duration.ofHours(1));
+        sqs.failingSendBatches.set(1);
+        batcher.send(QUEUE, "reply");
+        batcher.delete(QUEUE, done);
+        batcher.release(QUEUE, failed);
+        batcher.close();
+
+        assertTrue(sqs.bodies().contains("reply"));
+        assertEquals(2, sqs.bodies().size());
+        assertEquals(List.of("failed"), sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().stream().map(m -> m.body()).toList());
+    }
+}
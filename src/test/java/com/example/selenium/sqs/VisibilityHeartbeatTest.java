@@ -0,0 +1,81 @@
+package com.example.selenium.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+
+public class VisibilityHeartbeatTest {
+
+    private static final String QUEUE = "in-memory";
+
+    @Test
+    public void keepsMessageInvisibleWhileTracked() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        sqs.sendMessage(b -> b.queueUrl(QUEUE).messageBody("{}"));
+        String receiptHandle = sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().get(0).receiptHandle();
+
+        VisibilityHeartbeat heartbeat = new VisibilityHeartbeat(sqs, QUEUE, Duration.ofSeconds(120), Duration.ofSeconds(600));
+        heartbeat.track(receiptHandle);
+        for( int i=0; i<10; i++ ){
+            sqs.advanceSeconds(120);
+            heartbeat.beat();
+        }
+        assertTrue("message should still be in flight", sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().isEmpty());
+
+        heartbeat.stop(receiptHandle);
+        sqs.advanceSeconds(600);
+        heartbeat.beat();
+        assertEquals("abandoned message should be redelivered", 1, sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().size());
+    }
+
+    @Test
+    public void abandonedJobsAreRedeliveredRightAway() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        sqs.sendMessage(b -> b.queueUrl(QUEUE).messageBody("{}"));
+        SqsJobSource source = new SqsJobSource(sqs, QUEUE);
+        List<Job> jobs = source.receive(1, Duration.ZERO);
+        assertEquals(1, jobs.size());
+
+        source.abandon(jobs.get(0));
+        source.close();
+        assertEquals(1, sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().size());
+    }
+
+    @Test
+    public void extendsInBatchesOfTen() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        VisibilityHeartbeat heartbeat = new VisibilityHeartbeat(sqs, QUEUE, Duration.ofSeconds(120), Duration.ofSeconds(600));
+        for( int i=0; i<25; i++ ){
+            sqs.sendMessage(b -> b.queueUrl(QUEUE).messageBody("{}"));
+        }
+        sqs.receiveMessage(b -> b.queueUrl(QUEUE).maxNumberOfMessages(25)).messages().forEach(m -> heartbeat.track(m.receiptHandle()));
+
+        heartbeat.beat();
+        assertEquals(3, sqs.changeVisibilityCalls.get());
+        assertEquals(25, heartbeat.inFlight());
+    }
+
+    @Test
+    public void dropsMessagesDeletedElsewhere() {
+
+        InMemorySqsClient sqs = new InMemorySqsClient(600);
+        sqs.sendMessage(b -> b.queueUrl(QUEUE).messageBody("{}"));
+        String receiptHandle = sqs.receiveMessage(b -> b.queueUrl(QUEUE)).messages().get(0).receiptHandle();
+        VisibilityHeartbeat heartbeat = new VisibilityHeartbeat(sqs, QUEUE, Duration.ofSeconds(120), Duration.ofSeconds(600));
+        heartbeat.track(receiptHandle);
+
+        //a built entry, the Consumer overload of entries() is an unchecked generic varargs call
+        sqs.deleteMessageBatch(b -> b.queueUrl(QUEUE).entries(DeleteMessageBatchRequestEntry.builder().id("1").receiptHandle(receiptHandle).build()));
+        heartbeat.beat();
+        assertEquals(0, heartbeat.inFlight());
+    }
+}